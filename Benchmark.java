@@ -0,0 +1,344 @@
+package cs107;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Micro benchmarks of the "Quite Ok Image" Encoder and Decoder on synthetic images.
+ * @apiNote Run with "java cs107.Benchmark". The numbers are the best of a few runs
+ * after a warm up, they are only meant to compare two versions on the same machine.
+ * Run with "java cs107.Benchmark scaling" to decode 1, 10 and 100 megapixels images instead,
+ * the time per pixel should stay the same (the largest image needs about 1.5 GB of heap).
+ * @version 1.3
+ * @since 1.3
+ */
+public final class Benchmark {
+
+    /**
+     * DO NOT CHANGE THIS, MORE ON THAT IN WEEK 7.
+     */
+    private Benchmark(){}
+
+    private static final int WARM_UP = 5;
+    private static final int RUNS = 10;
+
+    /**
+     * Main entry point of the benchmarks
+     * @param args (String[]) - Arguments passed to the program via the command line
+     */
+    public static void main(String[] args){
+        if (args.length > 0 && args[0].equals("scaling")) {
+            benchmarkScaling(1, 10, 100);
+            return;
+        }
+        var ui = uiImage(1920, 1080, 107);
+        var photo = photoImage(1920, 1080, 107);
+        benchmarkEncoder("encode ui    1920x1080", ui);
+        benchmarkEncoder("encode photo 1920x1080", photo);
+        benchmarkPrepass("prepass ui    1920x1080", ui);
+        benchmarkPrepass("prepass photo 1920x1080", photo);
+        benchmarkDecoder("decode ui    1920x1080", ui);
+        benchmarkDecoder("decode photo 1920x1080", photo);
+        benchmarkStreamDecoder("stream ui    1920x1080", ui);
+        benchmarkMapped("mapped photo 1920x1080", photo);
+        benchmarkPreview("preview photo 1920x1080", photo, 64);
+        benchmarkCheckpoints("parallel photo 1920x1080", photo, 64);
+        benchmarkValidator("validate ui    1920x1080", ui);
+        benchmarkValidator("validate photo 1920x1080", photo);
+        benchmarkThumbnail("thumbnail photo   scale 8", photo, 8);
+        benchmarkExtended("ui    extended", ui);
+        benchmarkExtended("photo extended", photo);
+        benchmarkSequence("sequence ui  1920x1080", ui);
+        benchmarkPyramid("pyramid ui    4 levels", ui);
+        benchmarkPyramid("pyramid photo 4 levels", photo);
+        benchmarkEstimate("estimate ui    step 1", ui, 1);
+        benchmarkEstimate("estimate ui    step 8", ui, 8);
+        benchmarkEstimate("estimate photo step 1", photo, 1);
+        benchmarkEstimate("estimate photo step 8", photo, 8);
+    }
+
+    // ============================================================================================
+    // ================================== BENCHMARKS ==============================================
+    // ============================================================================================
+
+    private static void benchmarkEncoder(String name, int[][] image){
+        var encoded = QOIEncoder.encodeData(image);
+        var nanos = measure(() -> QOIEncoder.encodeData(image));
+        report(name, image, nanos, encoded.length);
+    }
+
+    /**
+     * Same as Benchmark::benchmarkEncoder with the Vector API pre-pass of vector/QOIVectorPrepass.java,
+     * skipped when that class or jdk.incubator.vector is missing
+     */
+    private static void benchmarkPrepass(String name, int[][] image){
+        Method encodeData;
+        try {
+            encodeData = Class.forName("cs107.QOIVectorPrepass").getDeclaredMethod("encodeData", int[][].class);
+            encodeData.setAccessible(true);
+        } catch (ReflectiveOperationException | LinkageError e){
+            System.out.printf("%-28s skipped, see vector/QOIVectorPrepass.java%n", name);
+            return;
+        }
+        Function<int[][], byte[]> encoder = data -> {
+            try {
+                return (byte[]) encodeData.invoke(null, (Object) data);
+            } catch (ReflectiveOperationException e){
+                return Helper.fail("The pre-pass encoder failed");
+            }
+        };
+        var encoded = encoder.apply(image);
+        assert Arrays.equals(encoded, QOIEncoder.encodeData(image));
+        var nanos = measure(() -> encoder.apply(image));
+        report(name, image, nanos, encoded.length);
+    }
+
+    private static void benchmarkDecoder(String name, int[][] data){
+        var encoded = QOIEncoder.qoiFile(Helper.generateImage(data, QOISpecification.RGBA, QOISpecification.sRGB));
+        var nanos = measure(() -> new QOIDecoderContext().decode(encoded));
+        report(name, data, nanos, encoded.length);
+    }
+
+    private static void benchmarkStreamDecoder(String name, int[][] data){
+        var encoded = QOIEncoder.qoiFile(Helper.generateImage(data, QOISpecification.RGBA, QOISpecification.sRGB));
+        var nanos = measure(() -> new QOIStreamDecoder(new ByteArrayInputStream(encoded)).forEachRow((row, y) -> {}));
+        report(name, data, nanos, encoded.length);
+        var first = measure(() -> new QOIStreamDecoder(new ByteArrayInputStream(encoded)).readRow());
+        System.out.printf("%-28s %8.3f ms to the first row%n", "", first / 1e6);
+    }
+
+    private static void benchmarkMapped(String name, int[][] data){
+        var encoded = QOIEncoder.qoiFile(Helper.generateImage(data, QOISpecification.RGBA, QOISpecification.sRGB));
+        try {
+            Path file = Files.createTempFile("benchmark", ".qoi");
+            try {
+                Files.write(file, encoded);
+                var read = measure(() -> QOIDecoder.decodeQoiFile(Helper.read(file.toString())));
+                report(name.replace("mapped", "read  "), data, read, encoded.length);
+                var mapped = measure(() -> QOIDecoder.decodeQoiFile(file));
+                report(name, data, mapped, encoded.length);
+            } finally {
+                Files.delete(file);
+            }
+        } catch (IOException e){
+            Helper.fail("An error occurred while trying to write the temporary file");
+        }
+    }
+
+    private static void benchmarkPreview(String name, int[][] data, int rows){
+        var encoded = QOIEncoder.qoiFile(Helper.generateImage(data, QOISpecification.RGBA, QOISpecification.sRGB));
+        var nanos = measure(() -> QOIDecoder.decodeQoiFile(encoded, rows));
+        System.out.printf("%-28s %8.3f ms for %d of %d rows%n", name, nanos / 1e6, rows, data.length);
+    }
+
+    private static void benchmarkCheckpoints(String name, int[][] data, int interval){
+        var files = QOICheckpoints.qoiFile(Helper.generateImage(data, QOISpecification.RGBA, QOISpecification.sRGB), interval);
+        var nanos = measure(() -> QOICheckpoints.decodeQoiFile(files[0], files[1]));
+        report(name, data, nanos, files[0].length);
+        System.out.printf("%-28s %8d bytes of checkpoints, %d threads%n", "", files[1].length,
+                java.util.concurrent.ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    private static void benchmarkValidator(String name, int[][] data){
+        var encoded = QOIEncoder.qoiFile(Helper.generateImage(data, QOISpecification.RGBA, QOISpecification.sRGB));
+        var nanos = measure(() -> QOIValidator.validate(encoded));
+        report(name, data, nanos, encoded.length);
+    }
+
+    private static void benchmarkThumbnail(String name, int[][] data, int scale){
+        var encoded = QOIEncoder.qoiFile(Helper.generateImage(data, QOISpecification.RGBA, QOISpecification.sRGB));
+        var nanos = measure(() -> QOIDecoder.decodeThumbnail(encoded, scale));
+        report(name, data, nanos, encoded.length);
+    }
+
+    private static void benchmarkExtended(String name, int[][] data){
+        var image = Helper.generateImage(data, QOISpecification.RGBA, QOISpecification.sRGB);
+        var encoded = QOIExtended.qoiFile(image);
+        var nanos = measure(() -> QOIExtended.qoiFile(image));
+        report("encode " + name, data, nanos, encoded.length);
+        nanos = measure(() -> QOIExtended.decodeQoiFile(encoded));
+        report("decode " + name, data, nanos, encoded.length);
+    }
+
+    private static void benchmarkSequence(String name, int[][] data){
+        int frames = 240;
+        var output = new ByteArrayOutputStream();
+        var frame = new int[data.length][];
+        for (var y = 0; y < data.length; ++y) {
+            frame[y] = data[y].clone();
+        }
+        var encoder = new QOISequenceEncoder(Channels.newChannel(output), data[0].length, data.length,
+                QOISpecification.RGBA, QOISpecification.sRGB, QOISequenceEncoder.DEFAULT_KEYFRAME_INTERVAL);
+        long deltaNanos = 0;
+        long deltaBytes = 0;
+        long keyBytes = 0;
+        for (var n = 0; n < frames; ++n) {
+            typing(frame, data, n);
+            var start = System.nanoTime();
+            var length = encoder.writeFrame(frame);
+            if (n % QOISequenceEncoder.DEFAULT_KEYFRAME_INTERVAL == 0) {
+                keyBytes += length;
+            } else {
+                deltaNanos += System.nanoTime() - start;
+                deltaBytes += length;
+            }
+        }
+        encoder.close();
+        int deltas = frames - (frames + QOISequenceEncoder.DEFAULT_KEYFRAME_INTERVAL - 1) / QOISequenceEncoder.DEFAULT_KEYFRAME_INTERVAL;
+        var decoder = new QOISequenceDecoder(output.toByteArray());
+        var decodeNanos = measure(() -> {
+            for (var n = 1; n < QOISequenceEncoder.DEFAULT_KEYFRAME_INTERVAL; ++n) {
+                decoder.frame(n);
+            }
+        });
+        System.out.printf("%-28s %8.2f ms / delta frame, %,d bytes / delta frame, %,d bytes / keyframe%n",
+                name, deltaNanos / 1e6 / deltas, deltaBytes / deltas, keyBytes / (frames - deltas));
+        System.out.printf("%-28s %8.2f ms / delta frame%n", "", decodeNanos / 1e6 / (QOISequenceEncoder.DEFAULT_KEYFRAME_INTERVAL - 1));
+    }
+
+    private static void benchmarkPyramid(String name, int[][] data){
+        var image = Helper.generateImage(data, QOISpecification.RGBA, QOISpecification.sRGB);
+        var files = QOIPyramidEncoder.qoiFiles(image, 4);
+        var nanos = measure(() -> QOIPyramidEncoder.qoiFiles(image, 4));
+        long size = 0;
+        for (var file : files) {
+            size += file.length;
+        }
+        report(name, data, nanos, size);
+    }
+
+    private static void benchmarkScaling(int... megapixels){
+        for (var size : megapixels) {
+            var side = (int) Math.round(Math.sqrt(size * 1e6));
+            var encoded = QOIEncoder.qoiFile(Helper.generateImage(uiImage(side, side, 107), QOISpecification.RGBA, QOISpecification.sRGB));
+            var nanos = measure(() -> QOIDecoder.decodeQoiFile(encoded));
+            System.out.printf("%-28s %8.2f ms %9.2f ns/pixel%n",
+                    "decode " + side + "x" + side, nanos / 1e6, (double) nanos / side / side);
+        }
+    }
+
+    private static void benchmarkEstimate(String name, int[][] data, int step){
+        var image = Helper.generateImage(data, QOISpecification.RGBA, QOISpecification.sRGB);
+        var estimate = QOIEncoder.estimateSize(image, step);
+        var nanos = measure(() -> QOIEncoder.estimateSize(image, step));
+        report(name, data, nanos, estimate.dataSize());
+        System.out.printf("%-28s %,d bytes +/- %,.0f%n", "", estimate.dataSize(), estimate.error());
+    }
+
+    // ============================================================================================
+    // ================================== SYNTHETIC IMAGES ========================================
+    // ============================================================================================
+
+    /**
+     * Generate an image looking like a user interface : flat rectangles, borders and short
+     * strokes of "text" on a plain background. The number of shapes grows with the area,
+     * as many per pixel as in a 1920x1080 image
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param seed (long) - Seed of the generator
+     * @return (int[][]) - ARGB pixels of the image
+     */
+    static int[][] uiImage(int width, int height, long seed){
+        var random = new Random(seed);
+        var image = new int[height][width];
+        for (var row : image) {
+            Arrays.fill(row, 0xFF_F0_F0_F0);
+        }
+        var area = (double) width * height / (1920 * 1080);
+        for (var n = 0; n < 200 * area; ++n) {
+            int x = random.nextInt(width), y = random.nextInt(height);
+            int w = 20 + random.nextInt(300), h = 10 + random.nextInt(120);
+            int color = 0xFF_00_00_00 | random.nextInt(0x1_00_00_00);
+            for (var j = y; j < Math.min(height, y + h); ++j) {
+                for (var i = x; i < Math.min(width, x + w); ++i) {
+                    image[j][i] = (j == y || i == x) ? 0xFF_80_80_80 : color;
+                }
+            }
+        }
+        for (var n = 0; n < 20_000 * area; ++n) {
+            int x = random.nextInt(width - 8), y = random.nextInt(height);
+            for (var i = x; i < x + 1 + random.nextInt(8); ++i) {
+                image[y][i] = 0xFF_20_20_20;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Generate an image looking like a photograph : smooth gradients with some noise
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param seed (long) - Seed of the generator
+     * @return (int[][]) - ARGB pixels of the image
+     */
+    static int[][] photoImage(int width, int height, long seed){
+        var random = new Random(seed);
+        var image = new int[height][width];
+        for (var y = 0; y < height; ++y) {
+            for (var x = 0; x < width; ++x) {
+                int r = (x * 255 / width + random.nextInt(3)) & 0xFF;
+                int g = (y * 255 / height + random.nextInt(3)) & 0xFF;
+                int b = ((x + y) * 127 / (width + height) + random.nextInt(5)) & 0xFF;
+                image[y][x] = 0xFF_00_00_00 | r << 16 | g << 8 | b;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Simulate someone typing in a text field : a new "glyph" appears at every frame
+     * and a blinking cursor follows it
+     * @param frame (int[][]) - Frame to update
+     * @param background (int[][]) - Image behind the text
+     * @param n (int) - Number of the frame
+     */
+    static void typing(int[][] frame, int[][] background, int n){
+        int line = 200 + 20 * (n / 100);
+        int column = 100 + 9 * (n % 100);
+        for (var y = line; y < line + 16; ++y) {
+            for (var x = column; x < column + 8; ++x) {
+                frame[y][x] = ((x * 7 + y * 13 + n) % 3 == 0) ? 0xFF_20_20_20 : background[y][x];
+            }
+            for (var x = column + 9; x < column + 11; ++x) {
+                frame[y][x] = (n / 15) % 2 == 0 ? 0xFF_00_00_00 : background[y][x];
+            }
+        }
+    }
+
+    // ============================================================================================
+    // ================================== MEASUREMENT =============================================
+    // ============================================================================================
+
+    /**
+     * Measure the best running time of the given action
+     * @param action (Runnable) - Action to measure
+     * @return (long) - Best running time in nanoseconds
+     */
+    static long measure(Runnable action){
+        for (var i = 0; i < WARM_UP; ++i) {
+            action.run();
+        }
+        var best = Long.MAX_VALUE;
+        for (var i = 0; i < RUNS; ++i) {
+            var start = System.nanoTime();
+            action.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static void report(String name, int[][] image, long nanos, long size){
+        long raw = (long) image.length * image[0].length * 4;
+        System.out.printf("%-28s %8.2f ms %9.1f MB/s  ratio %5.1f %%%n",
+                name, nanos / 1e6, raw / (nanos / 1e3), 100d * size / raw);
+    }
+
+}
\ No newline at end of file
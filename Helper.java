@@ -127,9 +127,18 @@ public final class Helper {
                 buffer.setRGB(y, x, image.data[x][y]);
             }
         }
+        writeImage(path, buffer);
+    }
+
+    /**
+     * Write a BufferedImage as "PNG" in the disk. This function writes to the folder called "res/"
+     * @param path (String) - Relative or Absolute path to the image
+     * @param image (BufferedImage) - Image to store
+     */
+    public static void writeImage(String path, BufferedImage image) {
         var abs_path = res_folder + File.separator + path;
         try {
-            ImageIO.write(buffer, "png", new File(abs_path));
+            ImageIO.write(image, "png", new File(abs_path));
         }catch (IOException e){
             fail("An error occurred while trying to write to : \"%s\"%n", abs_path);
         }
@@ -1,6 +1,17 @@
 package cs107;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
 /**
  * Main entry point of the program.
@@ -60,6 +71,15 @@ public final class Main {
         assert testQoiOpLuma();
         assert testQoiOpRun();
         assert testEncodeData();
+        assert testEncodePackedData();
+        assert testEncodeDataIndex();
+        assert testEncodeReference();
+        assert testStreamEncoder();
+        assert testParallelEncode();
+        assert testAppend();
+        assert testEstimateSize();
+        assert testOpaque();
+        assert testPyramid();
 
         // ========== Test QOIDecoder ==========
         assert testDecodeHeader();
@@ -69,6 +89,16 @@ public final class Main {
         assert testDecodeQoiOpLuma();
         assert testDecodeQoiOpRun();
         assert testDecodeData();
+        assert testPartialDecode();
+        assert testCheckpoints();
+        assert testValidator();
+        assert testThumbnail();
+        assert testContexts();
+        assert testBuffers();
+        assert testSequence();
+        assert testExtended();
+        assert testStreamDecoder();
+        assert testCatalog();
         qoiToPng("references/epfl.qoi","test1.png");
         System.out.println("All the tests passes. Congratulations");
     }
@@ -98,7 +128,7 @@ public final class Main {
         // Read in binary mode the file 'input_file'
         var inputFileContent = Helper.read(inputFile);
         // Decode the file using the 'QOI' decoder
-        var computedImage = QOIDecoder.decodeQoiFile(inputFileContent);
+        var computedImage = QOIDecoder.decodeBufferedImage(inputFileContent);
         // Write an image to 'output_file'
         Helper.writeImage(outputFile, computedImage);
     }
@@ -279,6 +309,217 @@ public final class Main {
         return Arrays.equals(expected, encoding);
     }
 
+    @SuppressWarnings("unused")
+    private static boolean testEncodePackedData(){
+        int[][] pixels = {{0xFF_00_00_00, 0xFF_00_00_00, 0xFF_00_00_00, 0xFF_00_FF_00},
+                {0xFF_EE_EC_EE, 0xFF_00_00_00, 0xFF_64_64_64, 0x5A_5A_5A_5A}};
+        byte[] expected = {-62, 102, -115, -103, -76, 102, -2, 100, 100, 100, -1, 90, 90, 90, 90};
+        byte[] encoding = QOIEncoder.encodeData(pixels);
+        return Arrays.equals(expected, encoding);
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testEncodeDataIndex(){
+        // {100, 100, 100} is found again in the index, {+2, +2, +2} is out of the QOI_OP_DIFF range
+        // and {0, 0, 0, 0} is the initial content of the index (same output as the reference encoder)
+        int[][] pixels = {{0xFF_64_64_64, 0xFF_66_66_66, 0xFF_64_64_64, 0xFF_00_00_00, 0x00_00_00_00}};
+        byte[] expected = {-2, 100, 100, 100, -94, -120, 17, -2, 0, 0, 0, 0};
+        byte[] encoding = QOIEncoder.encodeData(pixels);
+        return Arrays.equals(expected, encoding);
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testEncodeReference(){
+        // Every kind of chunk on every kind of image, RGB and RGBA, byte for byte
+        // against a plain port of the reference encoder (qoi.h)
+        int[][] sizes = {{1, 1}, {7, 5}, {64, 3}, {100, 33}};
+        for (int[] size : sizes) {
+            for (byte channels : new byte[]{QOISpecification.RGB, QOISpecification.RGBA}) {
+                for (int[][] pixels : testImages(size[0], size[1], channels == QOISpecification.RGBA)) {
+                    Helper.Image image = Helper.generateImage(pixels, channels, QOISpecification.sRGB);
+                    if (!Arrays.equals(referenceQoiFile(pixels, channels), QOIEncoder.qoiFile(image)))
+                        return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testStreamEncoder(){
+        for (int[][] pixels : testImages(70, 9)) {
+            Helper.Image image = Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.sRGB);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (QOIStreamEncoder encoder = new QOIStreamEncoder(output, 70, 9, QOISpecification.RGBA, QOISpecification.sRGB)) {
+                for (int[] row : pixels) {
+                    encoder.writeRow(row);
+                }
+            }
+            if (!Arrays.equals(QOIEncoder.qoiFile(image), output.toByteArray()))
+                return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testParallelEncode(){
+        // Runs (up to 150 pixels on rows of 10) cross the strips, the second image starts
+        // with a run of QOISpecification.START_PIXEL spanning several strips
+        int[][] runs = testImage(2, 10, 40, true, 5);
+        int[][] black = testImage(2, 10, 40, false, 6);
+        for (int y = 0; y < 25; ++y) {
+            Arrays.fill(black[y], 0xFF_00_00_00);
+        }
+        for (int[][] pixels : new int[][][]{runs, black}) {
+            byte[] expected = QOIEncoder.encodeData(pixels);
+            for (int strips : new int[]{1, 2, pixels.length / 2, pixels.length}) {
+                if (!Arrays.equals(expected, QOIParallelEncoder.encodeData(pixels, ForkJoinPool.commonPool(), strips)))
+                    return false;
+            }
+        }
+        // Narrow images : a strip often starts with a run pending from the previous one
+        int[][] carried = {{0xFF_00_00_00, 0xFF_00_00_00}, {0x10_00_00_00, 0x20_00_00_00}, {0x30_00_00_00, 0x40_00_00_00}};
+        if (!Arrays.equals(QOIEncoder.encodeData(carried), QOIParallelEncoder.encodeData(carried, ForkJoinPool.commonPool(), 2)))
+            return false;
+        for (int width = 1; width <= 2; ++width) {
+            for (int height = 1; height <= 20; ++height) {
+                for (int[][] pixels : testImages(width, height)) {
+                    byte[] expected = QOIEncoder.encodeData(pixels);
+                    for (int strips = 1; strips <= height; ++strips) {
+                        if (!Arrays.equals(expected, QOIParallelEncoder.encodeData(pixels, ForkJoinPool.commonPool(), strips)))
+                            return false;
+                    }
+                }
+            }
+        }
+        Helper.Image image = Helper.generateImage(runs, QOISpecification.RGBA, QOISpecification.sRGB);
+        return Arrays.equals(QOIEncoder.qoiFile(image), QOIParallelEncoder.qoiFile(image));
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testAppend(){
+        int[] heights = {4, 5, 3};
+        for (int[][] pixels : testImages(70, 12)) {
+            Helper.Image image = Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.sRGB);
+            try {
+                Path file = Files.createTempFile("append", ".qoi");
+                try {
+                    QOIStreamEncoder encoder = new QOIStreamEncoder(Files.newOutputStream(file), 70, heights[0], QOISpecification.RGBA, QOISpecification.sRGB);
+                    int y = 0;
+                    for (int part = 0; part < heights.length; ++part) {
+                        if (part > 0)
+                            encoder = QOIStreamEncoder.append(file, QOICheckpoint.fromBytes(encoder.checkpoint().toBytes()), heights[part]);
+                        for (int end = y + heights[part]; y < end; ++y) {
+                            encoder.writeRow(pixels[y]);
+                        }
+                        encoder.close();
+                    }
+                    if (!Arrays.equals(QOIEncoder.qoiFile(image), Files.readAllBytes(file)))
+                        return false;
+                    QOICheckpoint checkpoint = encoder.checkpoint();
+                    QOICheckpoint copy = QOICheckpoint.fromBytes(checkpoint.toBytes());
+                    if (!checkpoint.equals(copy) || checkpoint.hashCode() != copy.hashCode())
+                        return false;
+                    QOICheckpoint wrong = new QOICheckpoint(checkpoint.offset(), 71, checkpoint.height(),
+                            checkpoint.previous(), checkpoint.run(), checkpoint.index());
+                    try {
+                        QOIStreamEncoder.append(file, wrong, 1);
+                        return false;
+                    } catch (RuntimeException e){
+                        if (!Arrays.equals(QOIEncoder.qoiFile(image), Files.readAllBytes(file)))
+                            return false;
+                    }
+                } finally {
+                    Files.delete(file);
+                }
+            } catch (IOException e){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testEstimateSize(){
+        for (int[][] pixels : testImages(70, 9)) {
+            Helper.Image image = Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.sRGB);
+            QOISizeEstimate estimate = QOIEncoder.estimateSize(image);
+            if (estimate.fileSize() != QOIEncoder.qoiFile(image).length || estimate.error() != 0)
+                return false;
+        }
+        // The error is a 95% confidence interval : on these images, every sampled
+        // estimate falls inside it
+        for (int[][] pixels : testImages(64, 200)) {
+            Helper.Image image = Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.sRGB);
+            long size = QOIEncoder.qoiFile(image).length;
+            for (int step : new int[]{2, 4, 8}) {
+                QOISizeEstimate sampled = QOIEncoder.estimateSize(image, step);
+                if (sampled.error() <= 0 || Math.abs(sampled.fileSize() - size) > sampled.error())
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testOpaque(){
+        // The opaque loops hand over to the general ones in the middle of a call,
+        // the pixels are encoded and decoded in slices of random sizes to cross them
+        Random random = new Random(10);
+        for (int[][] rows : testImages(70, 9)) {
+            // Every third row is opaque, the images with alpha go in and out of the opaque loops
+            for (int y = 0; y < rows.length; y += 3) {
+                for (int x = 0; x < rows[y].length; ++x) {
+                    rows[y][x] |= 0xFF_00_00_00;
+                }
+            }
+            int[] pixels = Arrays.stream(rows).flatMapToInt(Arrays::stream).toArray();
+            byte[] expected = QOIEncoder.encodeData(rows);
+            QOIEncoderState encoder = new QOIEncoderState();
+            byte[] buffer = new byte[pixels.length * QOIEncoderState.MAX_CHUNK_SIZE + 1];
+            int position = 0;
+            for (int from = 0, to; from < pixels.length; from = to) {
+                to = Math.min(pixels.length, from + 1 + random.nextInt(40));
+                position = encoder.encode(pixels, from, to, buffer, position);
+            }
+            position = encoder.flush(buffer, position);
+            if (!Arrays.equals(expected, Arrays.copyOf(buffer, position)))
+                return false;
+            QOIDecoderState decoder = new QOIDecoderState();
+            int[] decoded = new int[pixels.length];
+            position = 0;
+            for (int from = 0, to; from < pixels.length; from = to) {
+                to = Math.min(pixels.length, from + 1 + random.nextInt(40));
+                position = decoder.decode(expected, position, decoded, from, to);
+            }
+            if (position != expected.length || !Arrays.equals(pixels, decoded))
+                return false;
+        }
+        // A QOI_OP_INDEX chunk may give a pixel that is not opaque (the index starts with
+        // transparent black), the QOI_OP_RGB chunk that follows keeps its alpha
+        byte[] data = {QOISpecification.QOI_OP_INDEX_TAG, QOISpecification.QOI_OP_RGB_TAG, 1, 2, 3};
+        return Arrays.equals(QOIDecoder.decodePixels(data, 2, 1), new int[]{0, 0x00_01_02_03});
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testPyramid(){
+        // Odd and even sizes, down to levels of a single pixel
+        int[][] sizes = {{1, 1}, {8, 4}, {37, 5}, {70, 9}};
+        for (int[] size : sizes) {
+            for (int[][] pixels : testImages(size[0], size[1])) {
+                Helper.Image image = Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.sRGB);
+                byte[][] files = QOIPyramidEncoder.qoiFiles(image, 5);
+                int[][] level = pixels;
+                for (byte[] file : files) {
+                    if (!Arrays.deepEquals(level, QOIDecoder.decodeQoiFile(file).data()))
+                        return false;
+                    level = boxAverage(level, 2);
+                }
+            }
+        }
+        return true;
+    }
+
     // ============================================================================================
     // ============================== QOIDecoder examples =========================================
     // ============================================================================================
@@ -350,4 +591,514 @@ public final class Main {
         return Arrays.deepEquals(expected, QOIDecoder.decodeData(encoding, 4, 2));
     }
 
+    @SuppressWarnings("unused")
+    private static boolean testPartialDecode(){
+        for (int[][] pixels : testImages(70, 9)) {
+            Helper.Image image = Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.ALL);
+            byte[] file = QOIEncoder.qoiFile(image);
+            for (int rows : new int[]{1, 4, 9, 12}) {
+                int[][] prefix = Arrays.copyOf(pixels, Math.min(rows, pixels.length));
+                Helper.Image partial = QOIDecoder.decodeQoiFile(file, rows);
+                if (!Arrays.deepEquals(prefix, partial.data()) || partial.channels() != QOISpecification.RGBA
+                        || partial.color_space() != QOISpecification.ALL)
+                    return false;
+                // Cut the file right after the chunk holding the last pixel of the last row
+                QOIDecoderState state = new QOIDecoderState();
+                int position = QOISpecification.HEADER_SIZE;
+                for (int[] row : prefix) {
+                    position = state.decode(file, position, new int[row.length], 0, row.length);
+                }
+                if (!Arrays.deepEquals(prefix, QOIDecoder.decodeQoiFile(Arrays.copyOf(file, position), rows).data()))
+                    return false;
+                // One byte less and the last chunk is missing or cut
+                try {
+                    QOIDecoder.decodeQoiFile(Arrays.copyOf(file, position - 1), rows);
+                    return false;
+                } catch (AssertionError e){
+                    // Expected
+                }
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testCheckpoints(){
+        // Runs of the images of kind 2 are pending at most of the checkpoints
+        for (int[][] pixels : testImages(10, 40)) {
+            Helper.Image image = Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.sRGB);
+            byte[] expected = QOIEncoder.qoiFile(image);
+            for (int interval : new int[]{1, 3, 7, 40, 50}) {
+                byte[][] files = QOICheckpoints.qoiFile(image, interval);
+                if (!Arrays.equals(expected, files[0]))
+                    return false;
+                if (!Arrays.deepEquals(pixels, QOICheckpoints.decodeQoiFile(files[0], files[1]).data()))
+                    return false;
+            }
+        }
+        // Checkpoints of another image are rejected
+        Helper.Image image = Helper.generateImage(testImage(1, 10, 40, true, 1), QOISpecification.RGBA, QOISpecification.sRGB);
+        Helper.Image other = Helper.generateImage(testImage(1, 10, 41, true, 1), QOISpecification.RGBA, QOISpecification.sRGB);
+        try {
+            QOICheckpoints.decodeQoiFile(QOICheckpoints.qoiFile(image, 4)[0], QOICheckpoints.qoiFile(other, 4)[1]);
+            return false;
+        } catch (AssertionError e){
+            return true;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testValidator(){
+        for (int[][] pixels : testImages(70, 9)) {
+            byte[] file = QOIEncoder.qoiFile(Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.sRGB));
+            ByteBuffer direct = ByteBuffer.allocateDirect(file.length).put(file).flip();
+            if (QOIValidator.validate(file) != QOIValidator.VALID || QOIValidator.validate(direct) != QOIValidator.VALID)
+                return false;
+            // A file ending too early, in the header, in a chunk or in QOI_EOF, gives its length
+            for (int length = 0; length < file.length; ++length) {
+                if (QOIValidator.validate(Arrays.copyOf(file, length)) != length)
+                    return false;
+            }
+            // Bytes after QOI_EOF start at the length of the file
+            if (QOIValidator.validate(Arrays.copyOf(file, file.length + 1)) != file.length)
+                return false;
+            // Magic number, width and height (negative), channels, color space and QOI_EOF
+            int[] corruptions = {0, 'Q', 3, 'x', 4, -1, 8, -128, 12, 5, 13, 2, file.length - 8, 1, file.length - 1, 0};
+            for (int i = 0; i < corruptions.length; i += 2) {
+                byte[] corrupted = file.clone();
+                corrupted[corruptions[i]] = (byte) corruptions[i + 1];
+                if (QOIValidator.validate(corrupted) != corruptions[i])
+                    return false;
+            }
+        }
+        // A run longer than the pixels left
+        byte[] header = QOIEncoder.qoiHeader(2, 1, QOISpecification.RGBA, QOISpecification.sRGB);
+        byte[] run = ArrayUtils.concat(header, new byte[]{(byte) 0xC2}, QOISpecification.QOI_EOF);
+        if (QOIValidator.validate(run) != QOISpecification.HEADER_SIZE)
+            return false;
+        try {
+            Path path = Files.createTempFile("validator", ".qoi");
+            try {
+                Files.write(path, ArrayUtils.concat(header, new byte[]{(byte) 0xC1}, QOISpecification.QOI_EOF));
+                if (QOIValidator.validate(path) != QOIValidator.VALID)
+                    return false;
+                Files.write(path, run);
+                return QOIValidator.validate(path) == QOISpecification.HEADER_SIZE;
+            } finally {
+                Files.delete(path);
+            }
+        } catch (IOException e){
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testThumbnail(){
+        // Sizes that are not multiples of the scales give boxes cut by the right and bottom edges
+        int[][] sizes = {{1, 1}, {8, 4}, {37, 5}, {70, 9}};
+        for (int[] size : sizes) {
+            for (int[][] pixels : testImages(size[0], size[1])) {
+                byte[] file = QOIEncoder.qoiFile(Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.ALL));
+                for (int scale : new int[]{1, 2, 3, 4, 8, 100}) {
+                    Helper.Image thumbnail = QOIDecoder.decodeThumbnail(file, scale);
+                    if (!Arrays.deepEquals(boxAverage(pixels, scale), thumbnail.data())
+                            || thumbnail.channels() != QOISpecification.RGBA || thumbnail.color_space() != QOISpecification.ALL)
+                        return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testContexts(){
+        int[][] pixels = {{0xFF_64_64_64, 0xFF_66_66_66, 0xFF_64_64_64}, {0xFF_00_00_00, 0x00_00_00_00, 0x00_00_00_00}};
+        Helper.Image image = Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.sRGB);
+        byte[] file = QOIEncoderContext.local().qoiFile(image);
+        Helper.Image decoded = QOIDecoderContext.local().decode(file);
+        int[][] rows = new int[2][3];
+        int[] flat = new int[8];
+        QOIDecoderContext.local().decodeInto(file, rows);
+        int count = QOIDecoderContext.local().decodeInto(file, flat);
+        // The header is checked like QOIDecoder::decodeHeader does, channels included
+        byte[] corrupted = file.clone();
+        corrupted[12] = 5;
+        try {
+            QOIDecoderContext.local().decodeInto(corrupted, rows);
+            return false;
+        } catch (AssertionError e){
+            // Expected
+        }
+        return Arrays.equals(QOIEncoder.qoiFile(image), file) && image.equals(decoded)
+                && Arrays.deepEquals(pixels, rows) && count == 6
+                && Arrays.equals(flat, 0, 3, pixels[0], 0, 3) && Arrays.equals(flat, 3, 6, pixels[1], 0, 3);
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testBuffers(){
+        byte[] rgba = {100, 100, 100, -1, 102, 102, 102, -1, 100, 100, 100, -1, 0, 0, 0, -1, 0, 0, 0, 0, 0, 0, 0, 0};
+        int[][] pixels = {{0xFF_64_64_64, 0xFF_66_66_66, 0xFF_64_64_64}, {0xFF_00_00_00, 0x00_00_00_00, 0x00_00_00_00}};
+        Helper.Image image = Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.sRGB);
+        ByteBuffer input = ByteBuffer.allocateDirect(rgba.length).put(rgba).flip();
+        ByteBuffer file = ByteBuffer.allocateDirect((int) QOIBuffers.maxSize(3, 2));
+        int length = QOIBuffers.encode(input, 3, 2, QOISpecification.RGBA, QOISpecification.sRGB, file);
+        byte[] encoded = new byte[length];
+        file.flip().get(0, encoded);
+        ByteBuffer output = ByteBuffer.allocateDirect(rgba.length);
+        int[] header = QOIBuffers.decode(file, output, QOISpecification.RGBA);
+        byte[] decoded = new byte[rgba.length];
+        output.flip().get(decoded);
+        if (!Arrays.equals(QOIEncoder.qoiFile(image), encoded) || !Arrays.equals(rgba, decoded)
+                || header[0] != 3 || header[1] != 2 || input.hasRemaining() || file.hasRemaining())
+            return false;
+        // RGB and RGBA rasters, heap and direct buffers, starting at non-zero positions
+        for (byte channels : new byte[]{QOISpecification.RGB, QOISpecification.RGBA}) {
+            for (int[][] data : testImages(13, 7, channels == QOISpecification.RGBA)) {
+                for (boolean direct : new boolean[]{false, true}) {
+                    byte[] raster = new byte[13 * 7 * channels];
+                    for (int i = 0, p = 0; i < 13 * 7; ++i) {
+                        int pixel = data[i / 13][i % 13];
+                        raster[p++] = (byte) (pixel >> 16);
+                        raster[p++] = (byte) (pixel >> 8);
+                        raster[p++] = (byte) pixel;
+                        if (channels == QOISpecification.RGBA)
+                            raster[p++] = (byte) (pixel >>> 24);
+                    }
+                    int size = (int) QOIBuffers.maxSize(13, 7);
+                    ByteBuffer source = direct ? ByteBuffer.allocateDirect(raster.length + 5) : ByteBuffer.allocate(raster.length + 5);
+                    source.position(5).put(raster).position(5);
+                    ByteBuffer target = direct ? ByteBuffer.allocateDirect(size + 3) : ByteBuffer.allocate(size + 3);
+                    target.position(3);
+                    int written = QOIBuffers.encode(source, 13, 7, channels, QOISpecification.sRGB, target);
+                    byte[] expected = QOIEncoder.qoiFile(Helper.generateImage(data, channels, QOISpecification.sRGB));
+                    byte[] actual = new byte[written];
+                    target.get(3, actual);
+                    if (!Arrays.equals(expected, actual) || target.position() != 3 + written || source.hasRemaining())
+                        return false;
+                    ByteBuffer raw = direct ? ByteBuffer.allocateDirect(raster.length + 2) : ByteBuffer.allocate(raster.length + 2);
+                    raw.position(2);
+                    QOIBuffers.decode(target.flip().position(3), raw, channels);
+                    byte[] back = new byte[raster.length];
+                    raw.get(2, back);
+                    if (!Arrays.equals(raster, back) || raw.hasRemaining() || target.hasRemaining())
+                        return false;
+                    // An output too small is rejected before anything is written
+                    ByteBuffer small = ByteBuffer.allocate(size - 1);
+                    try {
+                        QOIBuffers.encode(source.position(5), 13, 7, channels, QOISpecification.sRGB, small);
+                        return false;
+                    } catch (AssertionError e){
+                        if (small.position() != 0 || source.position() != 5)
+                            return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testSequence(){
+        int[][] first = {{0xFF_64_64_64, 0xFF_66_66_66, 0xFF_64_64_64}, {0xFF_00_00_00, 0x00_00_00_00, 0x00_00_00_00}};
+        int[][] second = {{0xFF_64_64_64, 0xFF_66_66_66, 0xFF_64_64_64}, {0xFF_00_00_00, 0xFF_01_02_03, 0x00_00_00_00}};
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        QOISequenceEncoder encoder = new QOISequenceEncoder(output, 3, 2, QOISpecification.RGBA, QOISpecification.sRGB);
+        encoder.writeFrame(first);
+        encoder.writeFrame(second);
+        encoder.writeFrame(first);
+        encoder.close();
+        QOISequenceDecoder decoder = new QOISequenceDecoder(output.toByteArray());
+        return decoder.frames() == 3 && Arrays.deepEquals(second, decoder.frame(1).data())
+                && Arrays.deepEquals(first, decoder.frame(2).data()) && Arrays.deepEquals(first, decoder.frame(0).data());
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testExtended(){
+        for (int[][] pixels : testImages(70, 9)) {
+            Helper.Image image = Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.sRGB);
+            for (int bits = 6; bits <= 10; ++bits) {
+                byte[] file = QOIExtended.qoiFile(image, bits);
+                Helper.Image decoded = QOIExtended.decodeQoiFile(file);
+                if (!Arrays.deepEquals(pixels, decoded.data()) || decoded.channels() != QOISpecification.RGBA)
+                    return false;
+                // The standard decoder rejects the file, with or without assertions
+                try {
+                    QOIDecoder.decodeQoiFile(file);
+                    return false;
+                } catch (RuntimeException e){
+                    // Expected
+                }
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testStreamDecoder(){
+        for (int[][] pixels : testImages(70, 9)) {
+            byte[] file = QOIEncoder.qoiFile(Helper.generateImage(pixels, QOISpecification.RGBA, QOISpecification.sRGB));
+            // A few bytes at a time, with bytes after QOISpecification.QOI_EOF
+            byte[] trailing = Arrays.copyOf(file, file.length + 5);
+            QOIStreamDecoder decoder = new QOIStreamDecoder(slowStream(trailing, trailing.length));
+            for (int[] row : pixels) {
+                if (!Arrays.equals(row, decoder.readRow()))
+                    return false;
+            }
+            // The first row is decoded as soon as its chunks are there, the rest is never asked for
+            int end = new QOIDecoderState().decode(file, QOISpecification.HEADER_SIZE, new int[70], 0, 70);
+            decoder = new QOIStreamDecoder(slowStream(file, end));
+            if (!Arrays.equals(pixels[0], decoder.readRow()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stream giving at most 3 bytes per read, reading past the given length is an error
+     * (the bytes are not there yet, a real input would block)
+     */
+    private static InputStream slowStream(byte[] content, int length){
+        return new InputStream() {
+            private int position;
+
+            @Override
+            public int read(){
+                byte[] single = new byte[1];
+                return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int count){
+                if (position == content.length)
+                    return -1;
+                assert position < length : "The decoder waits for bytes it does not need";
+                int read = Math.min(Math.min(count, 3), length - position);
+                System.arraycopy(content, position, bytes, offset, read);
+                position += read;
+                return read;
+            }
+        };
+    }
+
+    @SuppressWarnings("unused")
+    private static boolean testCatalog(){
+        Helper.Image image = Helper.generateImage(testImage(1, 7, 3, true, 1), QOISpecification.RGBA, QOISpecification.sRGB);
+        byte[] file = QOIEncoder.qoiFile(image);
+        try {
+            Path directory = Files.createTempDirectory("catalog");
+            try {
+                Path valid = Files.write(directory.resolve("valid.qoi"), file);
+                Path nested = Files.write(Files.createDirectory(directory.resolve("nested")).resolve("valid.qoi"), file);
+                // Only the header is read : a file truncated after its header is listed
+                Path chunks = Files.write(directory.resolve("chunks.qoi"), Arrays.copyOf(file, QOISpecification.HEADER_SIZE));
+                Path truncated = Files.write(directory.resolve("truncated.qoi"), Arrays.copyOf(file, 10));
+                Path other = Files.write(directory.resolve("other.qoi"), QOIExtended.qoiFile(image, 8));
+                Files.write(directory.resolve("empty.qoi"), new byte[0]);
+                Files.write(directory.resolve("valid.png"), file);
+                Files.createDirectory(directory.resolve("directory.qoi"));
+                List<Path> paths;
+                try (Stream<QOICatalog.Entry> entries = QOICatalog.scan(directory)) {
+                    paths = entries.filter(entry -> entry.width() == 7 && entry.height() == 3
+                                    && entry.channels() == QOISpecification.RGBA && entry.colorSpace() == QOISpecification.sRGB)
+                            .map(QOICatalog.Entry::path).sorted().toList();
+                }
+                if (!paths.equals(Stream.of(valid, nested, chunks).sorted().toList()))
+                    return false;
+                // Probing a single file fails, with or without assertions
+                for (Path path : new Path[]{truncated, other}) {
+                    try {
+                        QOICatalog.probe(path);
+                        return false;
+                    } catch (RuntimeException e){
+                        // Expected
+                    }
+                }
+                return QOICatalog.probe(valid).equals(new QOICatalog.Entry(valid, 7, 3, QOISpecification.RGBA, QOISpecification.sRGB));
+            } finally {
+                try (Stream<Path> paths = Files.walk(directory)) {
+                    for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.delete(path);
+                    }
+                }
+            }
+        } catch (IOException e){
+            return false;
+        }
+    }
+
+    // ============================================================================================
+    // ============================== Test images =================================================
+    // ============================================================================================
+
+    /**
+     * Kinds of images given by Main::testImage : random pixels, a small palette, long runs
+     * (crossing the rows and longer than 62 pixels) and small steps (around the limits of
+     * QOI_OP_DIFF and QOI_OP_LUMA)
+     */
+    private static final int TEST_IMAGE_KINDS = 4;
+
+    /**
+     * Generate the test images of every kind, opaque ones first, then with alpha
+     * @param width (int) - Width of the images
+     * @param height (int) - Height of the images
+     * @return (int[][][]) - ARGB pixels of the 2 * Main.TEST_IMAGE_KINDS images
+     */
+    private static int[][][] testImages(int width, int height){
+        int[][][] images = Arrays.copyOf(testImages(width, height, false), 2 * TEST_IMAGE_KINDS);
+        System.arraycopy(testImages(width, height, true), 0, images, TEST_IMAGE_KINDS, TEST_IMAGE_KINDS);
+        return images;
+    }
+
+    /**
+     * Generate one test image of every kind, the seed of an image is its kind
+     * @param width (int) - Width of the images
+     * @param height (int) - Height of the images
+     * @param alpha (boolean) - false for opaque images
+     * @return (int[][][]) - ARGB pixels of the Main.TEST_IMAGE_KINDS images
+     */
+    private static int[][][] testImages(int width, int height, boolean alpha){
+        int[][][] images = new int[TEST_IMAGE_KINDS][][];
+        for (int kind = 0; kind < TEST_IMAGE_KINDS; ++kind) {
+            images[kind] = testImage(kind, width, height, alpha, kind);
+        }
+        return images;
+    }
+
+    /**
+     * Generate a test image
+     * @param kind (int) - 0 for random pixels, 1 for a palette, 2 for runs, 3 for small steps
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param alpha (boolean) - false for an opaque image
+     * @param seed (long) - Seed of the generator
+     * @return (int[][]) - ARGB pixels of the image (same format as Helper.Image::data)
+     */
+    private static int[][] testImage(int kind, int width, int height, boolean alpha, long seed){
+        Random random = new Random(seed);
+        int[] palette = new int[8];
+        for (int i = 0; i < palette.length; ++i) {
+            palette[i] = random.nextInt();
+        }
+        int[][] pixels = new int[height][width];
+        int color = palette[0];
+        int left = 0;
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int pixel = switch (kind) {
+                    case 0 -> random.nextInt();
+                    case 1 -> palette[random.nextInt(palette.length)];
+                    case 2 -> {
+                        if (left == 0) {
+                            color = palette[random.nextInt(4)];
+                            left = 1 + random.nextInt(150);
+                        }
+                        left -= 1;
+                        yield color;
+                    }
+                    default -> {
+                        int dg = random.nextInt(68) - 34;
+                        int dr = dg + random.nextInt(20) - 10;
+                        int db = dg + random.nextInt(20) - 10;
+                        int a = random.nextInt(16) == 0 ? random.nextInt(256) : color >>> 24;
+                        color = a << 24 | (color >> 16) + dr << 16 & 0xFF_00_00
+                                | (color >> 8) + dg << 8 & 0xFF_00 | color + db & 0xFF;
+                        yield color;
+                    }
+                };
+                pixels[y][x] = alpha ? pixel : pixel | 0xFF_00_00_00;
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Encode a "Quite Ok Image" file the way the reference encoder (qoi.h) does, one channel
+     * at a time. An RGB image is encoded with an alpha of 255 whatever its pixels
+     * @param pixels (int[][]) - ARGB pixels of the image
+     * @param channels (byte) - Number of channels written in the header
+     * @return (byte[]) - "Quite Ok Image" file
+     */
+    private static byte[] referenceQoiFile(int[][] pixels, byte channels){
+        int width = pixels[0].length;
+        int height = pixels.length;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.writeBytes(QOIEncoder.qoiHeader(width, height, channels, QOISpecification.sRGB));
+        byte[][] index = new byte[64][4];
+        byte[] previous = {0, 0, 0, (byte) 255};
+        int run = 0;
+        for (int i = 0; i < width * height; ++i) {
+            int argb = pixels[i / width][i % width];
+            byte[] pixel = {(byte) (argb >> 16), (byte) (argb >> 8), (byte) argb,
+                    channels == QOISpecification.RGBA ? (byte) (argb >>> 24) : (byte) 255};
+            if (Arrays.equals(pixel, previous)) {
+                run += 1;
+                if (run == 62 || i == width * height - 1) {
+                    output.write(0xC0 | (run - 1));
+                    run = 0;
+                }
+                continue;
+            }
+            if (run > 0) {
+                output.write(0xC0 | (run - 1));
+                run = 0;
+            }
+            int hash = ((pixel[0] & 0xFF) * 3 + (pixel[1] & 0xFF) * 5 + (pixel[2] & 0xFF) * 7 + (pixel[3] & 0xFF) * 11) % 64;
+            if (Arrays.equals(index[hash], pixel)) {
+                output.write(hash);
+            } else {
+                index[hash] = pixel;
+                byte dr = (byte) (pixel[0] - previous[0]);
+                byte dg = (byte) (pixel[1] - previous[1]);
+                byte db = (byte) (pixel[2] - previous[2]);
+                int drg = dr - dg;
+                int dbg = db - dg;
+                if (pixel[3] != previous[3]) {
+                    output.writeBytes(new byte[]{-1, pixel[0], pixel[1], pixel[2], pixel[3]});
+                } else if (dr > -3 && dr < 2 && dg > -3 && dg < 2 && db > -3 && db < 2) {
+                    output.write(0x40 | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+                } else if (drg > -9 && drg < 8 && dg > -33 && dg < 32 && dbg > -9 && dbg < 8) {
+                    output.write(0x80 | (dg + 32));
+                    output.write((drg + 8) << 4 | (dbg + 8));
+                } else {
+                    output.writeBytes(new byte[]{-2, pixel[0], pixel[1], pixel[2]});
+                }
+            }
+            previous = pixel;
+        }
+        output.writeBytes(QOISpecification.QOI_EOF);
+        return output.toByteArray();
+    }
+
+    /**
+     * Average each channel of the image over boxes of scale x scale pixels, rounded to the
+     * nearest (halves are rounded up). On the right and bottom edges, the boxes only cover
+     * the remaining pixels
+     * @param pixels (int[][]) - ARGB pixels of the image
+     * @param scale (int) - Size of the side of a box
+     * @return (int[][]) - ARGB pixels of the ceil(width / scale) x ceil(height / scale) image
+     */
+    private static int[][] boxAverage(int[][] pixels, int scale){
+        int height = pixels.length;
+        int width = pixels[0].length;
+        int[][] averages = new int[(height + scale - 1) / scale][(width + scale - 1) / scale];
+        for (int y = 0; y < averages.length; ++y) {
+            for (int x = 0; x < averages[y].length; ++x) {
+                int average = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int sum = 0;
+                    int count = 0;
+                    for (int j = y * scale; j < Math.min(height, (y + 1) * scale); ++j) {
+                        for (int i = x * scale; i < Math.min(width, (x + 1) * scale); ++i) {
+                            sum += pixels[j][i] >>> shift & 0xFF;
+                            count += 1;
+                        }
+                    }
+                    average |= (sum + count / 2) / count << shift;
+                }
+                averages[y][x] = average;
+            }
+        }
+        return averages;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,223 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.function.IntFunction;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * "Quite Ok Image" Encoder and Decoder working on NIO buffers. The raster is interleaved
+ * RGBA (4 channels) or RGB (3 channels), one byte per channel, row after row, the layout
+ * used by most native libraries. Direct buffers are read and written in place.
+ * @apiNote Only one row of pixels and one row of chunks are kept on the heap, the raster
+ * is never copied as a whole. The position of the buffers is moved past the bytes read or
+ * written, like the relative bulk methods of ByteBuffer, their byte order is ignored.
+ * The produced files are the same as QOIEncoder::qoiFile.
+ * @version 1.3
+ * @since 1.3
+ */
+public final class QOIBuffers {
+
+    /**
+     * DO NOT CHANGE THIS, MORE ON THAT IN WEEK 7.
+     */
+    private QOIBuffers(){}
+
+    // ==================================================================================
+    // ================================ ENCODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Largest "Quite Ok Image" file an image of the given size can produce
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @return (long) - Size in bytes, enough for the output of QOIBuffers::encode
+     * @throws AssertionError if the width or the height is not positive
+     */
+    public static long maxSize(int width, int height){
+        assert width > 0 && height > 0;
+        return QOISpecification.HEADER_SIZE + (long) width * height * QOIEncoderState.MAX_CHUNK_SIZE
+                + 1 + QOISpecification.QOI_EOF.length;
+    }
+
+    /**
+     * Encode the raster starting at the position of the pixels into a "Quite Ok Image" file
+     * written at the position of the output
+     * @param pixels (ByteBuffer) - Interleaved RGBA or RGB raster, width * height * channels bytes
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels of the raster, also written in the header
+     * @param colorSpace (byte) - Color space written in the header
+     * @param output (ByteBuffer) - Buffer where to write the file
+     * @return (int) - Number of bytes written in the output
+     * @throws AssertionError if a buffer is null, if the pixels are too small, if the output
+     * is read-only or has less than QOIBuffers::maxSize bytes remaining (checked before
+     * anything is written) or if the header is corrupted
+     */
+    public static int encode(ByteBuffer pixels, int width, int height, byte channels, byte colorSpace, ByteBuffer output){
+        assert pixels != null && output != null;
+        assert channels == QOISpecification.RGB || channels == QOISpecification.RGBA;
+        byte[] header = QOIEncoder.qoiHeader(width, height, channels, colorSpace);
+        assert pixels.remaining() >= (long) width * height * channels;
+        assert !output.isReadOnly() && output.remaining() >= maxSize(width, height);
+        int start = output.position();
+        output.put(header);
+
+        ByteBuffer raster = pixels.slice().order(ByteOrder.BIG_ENDIAN);
+        IntBuffer words = raster.asIntBuffer();
+        byte[] bytes = new byte[width * channels];
+        int[] row = new int[width];
+        byte[] chunks = new byte[width * QOIEncoderState.MAX_CHUNK_SIZE + 1];
+        QOIEncoderState state = new QOIEncoderState();
+        for (int y = 0; y < height; ++y) {
+            if (channels == QOISpecification.RGBA) {
+                words.get(y * width, row);
+                for (int x = 0; x < width; ++x) {
+                    row[x] = Integer.rotateRight(row[x], 8);
+                }
+            } else {
+                raster.get(y * width * 3, bytes);
+                for (int x = 0, i = 0; x < width; ++x, i += 3) {
+                    row[x] = 0xFF_00_00_00 | (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+                }
+            }
+            int position = state.encode(row, 0, width, chunks, 0);
+            if (y == height - 1) {
+                position = state.flush(chunks, position);
+            }
+            output.put(chunks, 0, position);
+        }
+        output.put(QOISpecification.QOI_EOF);
+        pixels.position(pixels.position() + width * height * channels);
+        return output.position() - start;
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode the "Quite Ok Image" file starting at the position of the input into a raster
+     * written at the position of the pixels
+     * @param input (ByteBuffer) - Buffer holding the file to decode
+     * @param pixels (ByteBuffer) - Buffer where to write the interleaved raster
+     * @param channels (byte) - Number of channels of the raster (independent of the header)
+     * @return (int[]) - Width, height, channels and color space of the header, in this order
+     * (same format as QOIDecoder::decodeHeader)
+     * @throws AssertionError if a buffer is null, if the pixels are too small or read-only
+     * or if the input is not a valid "Quite Ok Image" file
+     */
+    public static int[] decode(ByteBuffer input, ByteBuffer pixels, byte channels){
+        assert input != null && pixels != null;
+        assert channels == QOISpecification.RGB || channels == QOISpecification.RGBA;
+        assert input.remaining() >= QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length;
+        byte[] header = new byte[QOISpecification.HEADER_SIZE];
+        input.get(input.position(), header);
+        QOIDecoder.checkMagic(header);
+        int[] info = QOIDecoder.decodeHeader(header);
+        int width = info[0];
+        int height = info[1];
+        assert pixels.remaining() >= (long) width * height * channels;
+
+        ByteBuffer raster = pixels.slice().order(ByteOrder.BIG_ENDIAN);
+        IntBuffer words = raster.asIntBuffer();
+        byte[] bytes = new byte[width * channels];
+        int eof = decodeRows(input, input.position() + QOISpecification.HEADER_SIZE, width, height, (row, y) -> {
+            if (channels == QOISpecification.RGBA) {
+                for (int x = 0; x < width; ++x) {
+                    row[x] = Integer.rotateLeft(row[x], 8);
+                }
+                words.put(y * width, row);
+            } else {
+                for (int x = 0, i = 0; x < width; ++x, i += 3) {
+                    bytes[i] = (byte) (row[x] >> 16);
+                    bytes[i + 1] = (byte) (row[x] >> 8);
+                    bytes[i + 2] = (byte) row[x];
+                }
+                raster.put(y * width * 3, bytes);
+            }
+        });
+        assert input.limit() - eof >= QOISpecification.QOI_EOF.length;
+        for (int i = 0; i < QOISpecification.QOI_EOF.length; ++i) {
+            assert input.get(eof + i) == QOISpecification.QOI_EOF[i];
+        }
+        input.position(eof + QOISpecification.QOI_EOF.length);
+        pixels.position(pixels.position() + width * height * channels);
+        return info;
+    }
+
+    /**
+     * Decode the chunks starting at the given index of the input, row after row
+     * @apiNote The chunks go through a window of two rows of chunks at most, the input is
+     * never copied as a whole. The position of the input is left untouched
+     * @param input (ByteBuffer) - Buffer holding the chunks
+     * @param position (int) - Index in the input of the first chunk
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param action (ObjIntConsumer) - Action taking the ARGB pixels of every row and the index
+     * of the row, the array is overwritten by the next row
+     * @return (int) - Index in the input right after the last chunk
+     * @throws AssertionError if the input ends in the middle of the chunks
+     */
+    static int decodeRows(ByteBuffer input, int position, int width, int height, ObjIntConsumer<int[]> action){
+        int[] row = new int[width];
+        return decodeRows(input, position, width, height, y -> row, action);
+    }
+
+    /**
+     * Decode the chunks starting at the given index of the input straight into the rows
+     * of the given raster
+     * @param input (ByteBuffer) - Buffer holding the chunks
+     * @param position (int) - Index in the input of the first chunk
+     * @param data (int[][]) - Raster where to write the ARGB pixels, one array per row
+     * @return (int) - Index in the input right after the last chunk
+     * @throws AssertionError if the input ends in the middle of the chunks
+     */
+    static int decodeRows(ByteBuffer input, int position, int[][] data){
+        int width = data.length == 0 ? 0 : data[0].length;
+        return decodeRows(input, position, width, data.length, y -> data[y], (row, y) -> {});
+    }
+
+    /**
+     * Decode the chunks starting at the given index of the input into the rows given by rows
+     * @param input (ByteBuffer) - Buffer holding the chunks
+     * @param position (int) - Index in the input of the first chunk
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param rows (IntFunction) - Array where to decode the row of the given index
+     * @param action (ObjIntConsumer) - Action taking every decoded row and its index
+     * @return (int) - Index in the input right after the last chunk
+     * @throws AssertionError if the input ends in the middle of the chunks
+     */
+    private static int decodeRows(ByteBuffer input, int position, int width, int height,
+                                  IntFunction<int[]> rows, ObjIntConsumer<int[]> action){
+        // A row never needs more than width * MAX_CHUNK_SIZE bytes of chunks, the window holds
+        // twice that so that what is left after a row always fits with a full refill
+        int need = width * QOIEncoderState.MAX_CHUNK_SIZE;
+        byte[] window = new byte[2 * need];
+        int start = 0;
+        int limit = 0;
+        int next = position;
+        int end = input.limit();
+        QOIDecoderState state = new QOIDecoderState();
+        for (int y = 0; y < height; ++y) {
+            if (limit - start < need && next < end) {
+                System.arraycopy(window, start, window, 0, limit - start);
+                limit -= start;
+                start = 0;
+                int count = Math.min(window.length - limit, end - next);
+                input.get(next, window, limit, count);
+                limit += count;
+                next += count;
+            }
+            int[] row = rows.apply(y);
+            start = state.decode(window, start, row, 0, width);
+            assert start <= limit;
+            action.accept(row, y);
+        }
+        assert state.run == 0;
+        return next - (limit - start);
+    }
+
+}
@@ -0,0 +1,102 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Catalog of the "Quite Ok Image" files of a directory : only the header of every file is
+ * read (QOIDecoder::probe), the images themselves are never decoded.
+ * @apiNote The files are probed in parallel and the entries are produced while the
+ * directory is walked, a large tree does not have to be listed before the first entry.
+ * @version 1.3
+ * @since 1.3
+ */
+public final class QOICatalog {
+
+    /**
+     * DO NOT CHANGE THIS, MORE ON THAT IN WEEK 7.
+     */
+    private QOICatalog(){}
+
+    /**
+     * Information given by the header of a "Quite Ok Image" file
+     * @param path (Path) - Path of the file
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     */
+    public record Entry(Path path, int width, int height, byte channels, byte colorSpace){}
+
+    // ==================================================================================
+    // ================================= SCANNING METHODS ===============================
+    // ==================================================================================
+
+    /**
+     * Probe a single file
+     * @param path (Path) - Path of the file
+     * @return (Entry) - Information given by the header of the file
+     * @throws AssertionError if path is null
+     * @throws RuntimeException if the file cannot be read or does not start with a valid header
+     */
+    public static Entry probe(Path path){
+        int[] info = QOIDecoder.probe(path);
+        return new Entry(path, info[0], info[1], (byte) info[2], (byte) info[3]);
+    }
+
+    /**
+     * Probe all the ".qoi" files of a directory and of its subdirectories
+     * @apiNote The stream is parallel and holds the directory open : close it once done
+     * (try-with-resources). Files with a ".qoi" name but no valid header, or that cannot be
+     * read, are skipped
+     * @param directory (Path) - Root of the scan
+     * @return (Stream) - Entries of the valid "Quite Ok Image" files, in no particular order
+     * @throws AssertionError if the directory is null
+     */
+    public static Stream<Entry> scan(Path directory){
+        assert directory != null;
+        try {
+            return Files.walk(directory)
+                    .filter(QOICatalog::isQoiName)
+                    .filter(Files::isRegularFile)
+                    .parallel()
+                    .map(QOICatalog::entry)
+                    .filter(Objects::nonNull);
+        } catch (IOException e){
+            return Helper.fail("An error occurred while trying to walk : \"%s\"%n", directory);
+        }
+    }
+
+    /**
+     * Check the name of a file, a root of the file system has no name
+     * @param path (Path) - Path of the file
+     * @return (boolean) - true if the name of the file ends with ".qoi"
+     */
+    private static boolean isQoiName(Path path){
+        Path name = path.getFileName();
+        return name != null && name.toString().endsWith(".qoi");
+    }
+
+    /**
+     * Read the header of the file without any assertion
+     * @apiNote A file that cannot be read (removed during the scan, no permission, ...) is
+     * skipped instead of aborting the whole scan
+     * @param path (Path) - Path of the file
+     * @return (Entry) - Information given by the header, null if it is not a valid header
+     */
+    private static Entry entry(Path path){
+        byte[] header;
+        try {
+            header = QOIDecoder.readHeader(path);
+        } catch (RuntimeException e){
+            return null;
+        }
+        if (!QOIDecoder.isHeader(header))
+            return null;
+        return new Entry(path, QOIDecoder.toInt(header, 4), QOIDecoder.toInt(header, 8), header[12], header[13]);
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,120 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Snapshot of the "Quite Ok Image" encoder after a given number of rows. It records
+ * everything needed to continue the encoding later : the offset in the file of the next
+ * chunk, the previous pixel, the pending run and the 64 entries index.
+ * @apiNote The pending run is not encoded yet, the chunk at offset will cover it.
+ * A checkpoint can be stored next to the file (see QOICheckpoint::toBytes)
+ * @param offset (long) - Offset in the file right after the last encoded chunk
+ * @param width (int) - Width of the image
+ * @param height (int) - Number of rows encoded before the checkpoint
+ * @param previous (int) - Previous pixel (packed ARGB)
+ * @param run (int) - Number of pixels of the pending run
+ * @param index (int[]) - Running index (packed ARGB)
+ * @version 1.3
+ * @since 1.3
+ */
+public record QOICheckpoint(long offset, int width, int height, int previous, int run, int[] index) {
+
+    /**
+     * Magic Number of a serialized checkpoint
+     */
+    private static final byte[] MAGIC = new byte[]{'q', 'o', 'i', 'c'};
+
+    /**
+     * Size of a serialized checkpoint
+     */
+    public static final int SIZE = MAGIC.length + 8 + 4 + 4 + 4 + 4 + 64 * 4;
+
+    /**
+     * @throws AssertionError if the index is null or does not have 64 entries
+     */
+    public QOICheckpoint {
+        assert index != null && index.length == 64;
+        assert offset >= QOISpecification.HEADER_SIZE && run >= 0 && run < 62;
+        index = index.clone();
+    }
+
+    /**
+     * Create a checkpoint from the current state of an encoder
+     * @param state (QOIEncoderState) - State of the encoder
+     * @param offset (long) - Offset in the file right after the last encoded chunk
+     * @param width (int) - Width of the image
+     * @param height (int) - Number of rows encoded so far
+     * @return (QOICheckpoint) - Snapshot of the state
+     */
+    static QOICheckpoint of(QOIEncoderState state, long offset, int width, int height){
+        return new QOICheckpoint(offset, width, height, state.previous, state.run, state.index);
+    }
+
+    /**
+     * Restore the snapshot in the given encoder state
+     * @param state (QOIEncoderState) - State of the encoder to overwrite
+     */
+    void restore(QOIEncoderState state){
+        state.previous = previous;
+        state.run = run;
+        System.arraycopy(index, 0, state.index, 0, 64);
+    }
+
+    @Override
+    public int[] index() {
+        return index.clone();
+    }
+
+    // ==================================================================================
+    // ============================== SERIALIZATION METHODS =============================
+    // ==================================================================================
+
+    /**
+     * Serialize the checkpoint ("Big Endian"), for instance to store it next to the file
+     * @return (byte[]) - QOICheckpoint.SIZE bytes representing the checkpoint
+     */
+    public byte[] toBytes(){
+        var bytes = ByteBuffer.allocate(SIZE).put(MAGIC).putLong(offset).putInt(width).putInt(height).putInt(previous).putInt(run);
+        for (int pixel : index) {
+            bytes.putInt(pixel);
+        }
+        return bytes.array();
+    }
+
+    /**
+     * Deserialize a checkpoint written by QOICheckpoint::toBytes
+     * @param content (byte[]) - Serialized checkpoint
+     * @return (QOICheckpoint) - The checkpoint
+     * @throws AssertionError if the content is not a serialized checkpoint
+     */
+    public static QOICheckpoint fromBytes(byte[] content){
+        assert content != null && content.length == SIZE;
+        assert Arrays.equals(content, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+        var bytes = ByteBuffer.wrap(content, MAGIC.length, SIZE - MAGIC.length);
+        long offset = bytes.getLong();
+        int width = bytes.getInt();
+        int height = bytes.getInt();
+        int previous = bytes.getInt();
+        int run = bytes.getInt();
+        int[] index = new int[64];
+        bytes.asIntBuffer().get(index);
+        return new QOICheckpoint(offset, width, height, previous, run, index);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof QOICheckpoint cp){
+            return offset == cp.offset && width == cp.width && height == cp.height
+                    && previous == cp.previous && run == cp.run && Arrays.equals(index, cp.index);
+        } else
+            return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(offset, width, height, previous, run) * 31 + Arrays.hashCode(index);
+    }
+
+}
@@ -0,0 +1,149 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Restart checkpoints of a "Quite Ok Image" file, used to decode it in parallel. Every
+ * chunk depends on the previous pixel and on the index, a checkpoint saves both every
+ * given number of rows so that the rows after it can be decoded without the ones before.
+ * @apiNote The checkpoints are kept apart from the file (a sidecar), the file itself is
+ * exactly the one of QOIEncoder::qoiFile and any decoder still reads it. Layout :
+ * <pre>
+ * header      : "qoir" | width (4) | height (4) | number of checkpoints (4)
+ * checkpoint  : first row (4) | offset of the next chunk in the file (4) | previous pixel (4)
+ *               | pending run (1) | index (64 * 4)
+ * </pre>
+ * A run pending at a checkpoint belongs to the rows before it : the chunk at the offset
+ * is a QOI_OP_RUN chunk whose first pixels (as many as the pending run) are skipped.
+ * @version 1.3
+ * @since 1.3
+ */
+public final class QOICheckpoints {
+
+    /**
+     * Magic number of the checkpoints
+     */
+    public static final byte[] QOIR_MAGIC = new byte[]{'q', 'o', 'i', 'r'};
+
+    private static final int CHECKPOINT_SIZE = 4 + 4 + 4 + 1 + 64 * 4;
+
+    /**
+     * DO NOT CHANGE THIS, MORE ON THAT IN WEEK 7.
+     */
+    private QOICheckpoints(){}
+
+    // ==================================================================================
+    // ================================ ENCODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Encode the image and record a checkpoint every given number of rows
+     * @param image (Helper.Image) - Image to encode
+     * @param interval (int) - Number of rows between two checkpoints
+     * @return (byte[][]) - The "Quite Ok Image" file (the same as QOIEncoder::qoiFile)
+     * followed by its checkpoints
+     * @throws AssertionError if the image is null or the interval is not positive
+     */
+    public static byte[][] qoiFile(Helper.Image image, int interval){
+        assert image != null;
+        assert interval > 0;
+        int[][] data = image.data();
+        int width = data[0].length;
+        int height = data.length;
+        byte[] header = QOIEncoder.qoiHeader(width, height, image.channels(), image.color_space());
+        byte[] buffer = new byte[header.length + width * height * QOIEncoderState.MAX_CHUNK_SIZE + 1 + QOISpecification.QOI_EOF.length];
+        System.arraycopy(header, 0, buffer, 0, header.length);
+        int count = (height - 1) / interval;
+        ByteBuffer checkpoints = ByteBuffer.allocate(QOIR_MAGIC.length + 12 + count * CHECKPOINT_SIZE);
+        checkpoints.put(QOIR_MAGIC).putInt(width).putInt(height).putInt(count);
+        QOIEncoderState state = new QOIEncoderState();
+        int position = header.length;
+        for (int y = 0; y < height; ++y) {
+            if (y > 0 && y % interval == 0) {
+                checkpoints.putInt(y).putInt(position).putInt(state.previous).put((byte) state.run);
+                checkpoints.asIntBuffer().put(state.index);
+                checkpoints.position(checkpoints.position() + 64 * 4);
+            }
+            assert data[y] != null && data[y].length == width;
+            position = state.encode(data[y], 0, width, buffer, position);
+        }
+        position = state.flush(buffer, position);
+        System.arraycopy(QOISpecification.QOI_EOF, 0, buffer, position, QOISpecification.QOI_EOF.length);
+        position += QOISpecification.QOI_EOF.length;
+        return new byte[][]{Arrays.copyOf(buffer, position), checkpoints.array()};
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode the file in parallel, one band of rows per checkpoint
+     * @apiNote The bands are decoded on the common ForkJoinPool and written in the
+     * same rows. Each band checks that it ends where the next one starts
+     * @param content (byte[]) - Content of the file to decode
+     * @param checkpoints (byte[]) - Checkpoints of the file, written by QOICheckpoints::qoiFile
+     * @return (Helper.Image) - Decoded image
+     * @throws AssertionError if content or checkpoints is null, if they do not belong
+     * together or if the file is not a valid "Quite Ok Image" file
+     */
+    public static Helper.Image decodeQoiFile(byte[] content, byte[] checkpoints){
+        assert content != null && checkpoints != null;
+        assert content.length >= QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length;
+        QOIDecoder.checkMagic(content);
+        int[] header = QOIDecoder.decodeHeader(Arrays.copyOf(content, QOISpecification.HEADER_SIZE));
+        assert checkpoints.length >= QOIR_MAGIC.length + 12;
+        for (int i = 0; i < QOIR_MAGIC.length; ++i) {
+            assert checkpoints[i] == QOIR_MAGIC[i];
+        }
+        ByteBuffer input = ByteBuffer.wrap(checkpoints);
+        assert input.getInt(4) == header[0] && input.getInt(8) == header[1];
+        int count = input.getInt(12);
+        assert count >= 0 && checkpoints.length == QOIR_MAGIC.length + 12 + count * CHECKPOINT_SIZE;
+        int[][] data = new int[header[1]][header[0]];
+        IntStream.rangeClosed(0, count).parallel().forEach(band -> decodeBand(content, input, band, count, data));
+        return Helper.generateImage(data, (byte) header[2], (byte) header[3]);
+    }
+
+    /**
+     * Decode the rows between the checkpoint band - 1 (the beginning of the file for 0)
+     * and the checkpoint band (the end of the file for the last band)
+     */
+    private static void decodeBand(byte[] content, ByteBuffer checkpoints, int band, int count, int[][] data){
+        QOIDecoderState state = new QOIDecoderState();
+        int from = 0;
+        int position = QOISpecification.HEADER_SIZE;
+        if (band > 0) {
+            int at = QOIR_MAGIC.length + 12 + (band - 1) * CHECKPOINT_SIZE;
+            from = checkpoints.getInt(at);
+            position = checkpoints.getInt(at + 4);
+            state.previous = checkpoints.getInt(at + 8);
+            int pending = checkpoints.get(at + 12);
+            checkpoints.slice(at + 13, 64 * 4).asIntBuffer().get(state.index);
+            assert 0 <= pending && pending < 62;
+            position = state.decode(content, position, new int[pending], 0, pending);
+        }
+        int to = data.length;
+        if (band < count) {
+            int at = QOIR_MAGIC.length + 12 + band * CHECKPOINT_SIZE;
+            to = checkpoints.getInt(at);
+        }
+        assert 0 <= from && from < to && to <= data.length;
+        for (int y = from; y < to; ++y) {
+            position = state.decode(content, position, data[y], 0, data[y].length);
+        }
+        if (band < count) {
+            int at = QOIR_MAGIC.length + 12 + band * CHECKPOINT_SIZE;
+            int next = checkpoints.getInt(at + 4);
+            assert state.previous == checkpoints.getInt(at + 8);
+            assert checkpoints.get(at + 12) == 0 ? position == next : position == next + 1;
+        } else {
+            assert state.run == 0;
+            assert position == content.length - QOISpecification.QOI_EOF.length;
+            assert Arrays.equals(content, position, content.length, QOISpecification.QOI_EOF, 0, QOISpecification.QOI_EOF.length);
+        }
+    }
+
+}
\ No newline at end of file
@@ -1,5 +1,16 @@
 package cs107;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
 import static cs107.Helper.Image;
 
 /**
@@ -27,16 +38,89 @@ public final class QOIDecoder {
      * @throws AssertionError See handouts section 6.1
      */
     public static int[] decodeHeader(byte[] header){
-        assert(header!=null && header.length==QOISpecification.HEADER_SIZE);
-        assert(ArrayUtils.equals(ArrayUtils.extract(header,0,4),QOISpecification.QOI_MAGIC));
-        assert(header[12]==QOISpecification.RGB || header[12]==QOISpecification.RGBA);
-        assert(header[13]==QOISpecification.sRGB || header[13]==QOISpecification.ALL);
+        assert(isHeader(header));
         int height = (int)ArrayUtils.toInt(ArrayUtils.extract(header,4,4));
         int width = (int)ArrayUtils.toInt(ArrayUtils.extract(header,8,4));
         int[] decodedHeader = new int[]{height,width,(int)header[12],(int)header[13]};
         return  decodedHeader;
     }
 
+    /**
+     * Check if the given bytes are a valid "Quite Ok Image" header
+     * @param header (byte[]) - Bytes to check
+     * @return (boolean) - true if QOIDecoder::decodeHeader accepts the header
+     */
+    static boolean isHeader(byte[] header){
+        return header!=null && header.length==QOISpecification.HEADER_SIZE && isHeader(header, 0);
+    }
+
+    /**
+     * Check if the bytes of the given array starting at the given index are a valid
+     * "Quite Ok Image" header, in place : nothing is copied
+     * @param content (byte[]) - Array holding the header, it may hold more bytes
+     * @param position (int) - Index of the first byte of the header
+     * @return (boolean) - true if QOIDecoder::decodeHeader accepts these bytes as a header
+     */
+    static boolean isHeader(byte[] content, int position){
+        int length = QOISpecification.QOI_MAGIC.length;
+        return content!=null && position>=0 && content.length-position>=QOISpecification.HEADER_SIZE
+                && Arrays.equals(content,position,position+length,QOISpecification.QOI_MAGIC,0,length)
+                && (content[position+12]==QOISpecification.RGB || content[position+12]==QOISpecification.RGBA)
+                && (content[position+13]==QOISpecification.sRGB || content[position+13]==QOISpecification.ALL);
+    }
+
+    /**
+     * Check the magic number of a file before decoding it. Unlike the other checks of the
+     * header, this one is not an assertion : a file of another format (a QOIExtended file
+     * for instance) is rejected even when assertions are disabled
+     * @param content (byte[]) - First bytes of the file
+     * @throws RuntimeException if the content does not start with QOISpecification.QOI_MAGIC
+     */
+    static void checkMagic(byte[] content){
+        int length = QOISpecification.QOI_MAGIC.length;
+        if (content.length < length || !Arrays.equals(content, 0, length, QOISpecification.QOI_MAGIC, 0, length))
+            Helper.fail("The content is not a \"Quite Ok Image\" file, its magic number is wrong");
+    }
+
+    /**
+     * Read the header of a "Quite Ok Image" file without decoding the image
+     * @apiNote Only QOISpecification.HEADER_SIZE bytes of the file are read
+     * @param path (Path) - Path of the file
+     * @return (int[]) - Array such as its content is {width, height, channels, color space}
+     * @throws AssertionError if path is null
+     * @throws RuntimeException if the file cannot be read or does not start with a valid header
+     */
+    public static int[] probe(Path path){
+        assert (path != null);
+        byte[] header = readHeader(path);
+        if (!isHeader(header))
+            Helper.fail("The file \"%s\" does not start with a valid \"Quite Ok Image\" header", path);
+        return decodeHeader(header);
+    }
+
+    /**
+     * Read the first QOISpecification.HEADER_SIZE bytes of a file
+     * @param path (Path) - Path of the file
+     * @return (byte[]) - Bytes read, fewer than QOISpecification.HEADER_SIZE if the file is shorter
+     */
+    static byte[] readHeader(Path path){
+        try (InputStream input = Files.newInputStream(path)) {
+            return input.readNBytes(QOISpecification.HEADER_SIZE);
+        } catch (IOException e){
+            return Helper.fail("An error occurred while trying to read from : \"%s\"%n", path);
+        }
+    }
+
+    /**
+     * Read a "Big Endian" integer from the given array without copying it
+     * @param input (byte[]) - Array to read from
+     * @param position (int) - Index of the first byte of the integer
+     * @return (int) - The integer
+     */
+    static int toInt(byte[] input, int position){
+        return (input[position] & 0xFF) << 24 | (input[position+1] & 0xFF) << 16 | (input[position+2] & 0xFF) << 8 | (input[position+3] & 0xFF);
+    }
+
     // ==================================================================================
     // =========================== ATOMIC DECODING METHODS ==============================
     // ==================================================================================
@@ -136,24 +220,17 @@ public final class QOIDecoder {
      * @param pixel (byte[]) - The pixel to store
      * @param chunk (byte) - a QOI_OP_RUN data chunk
      * @param position (int) - Index in buffer to start writing from
-     * @return (int) - number of written pixels in buffer
+     * @return (int) - number of written pixels in buffer minus one (the pixel at position
+     * is counted by the caller, like any other chunk)
      * @throws AssertionError See handouts section 6.2.6
      */
     public static int decodeQoiOpRun(byte[][] buffer, byte[] pixel, byte chunk, int position){
         assert(buffer!=null && pixel!=null && position>=0 && position<buffer.length);
         assert(pixel.length==4 && buffer[0].length==4);
-        int count =-1;
         int repetitions = chunk - QOISpecification.QOI_OP_RUN_TAG+1;
         assert(buffer.length>=position+repetitions);
-        for (int i=position;i<position+repetitions;i++){
-            buffer[i] = pixel;
-        }
-        for (byte[] pix:buffer){
-            if (pix==pixel){
-                count+=1;
-            }
-        }
-        return count;
+        Arrays.fill(buffer, position, position+repetitions, pixel);
+        return repetitions-1;
     }
 
     // ==================================================================================
@@ -162,6 +239,9 @@ public final class QOIDecoder {
 
     /**
      * Decode the given data using the "Quite Ok Image" Protocol
+     * @apiNote The pixels are decoded with QOIDecoder::decodePixels, they are only
+     * split into channels at the end. Prefer QOIDecoder::decodePixels to avoid
+     * one array per pixel
      * @param data (byte[]) - Data to decode
      * @param width (int) - The width of the expected output
      * @param height (int) - The height of the expected output
@@ -169,53 +249,47 @@ public final class QOIDecoder {
      * @throws AssertionError See handouts section 6.3
      */
     public static byte[][] decodeData(byte[] data, int width, int height){
+        int[] pixels = decodePixels(data, width, height);
+        byte[][] buffer = new byte[pixels.length][];
+        for (int i = 0; i < pixels.length; ++i) {
+            int pixel = pixels[i];
+            buffer[i] = new byte[]{(byte) (pixel >> 16), (byte) (pixel >> 8), (byte) pixel, (byte) (pixel >>> 24)};
+        }
+        return buffer;
+    }
+
+    /**
+     * Decode the given data using the "Quite Ok Image" Protocol
+     * @param data (byte[]) - Data to decode
+     * @param width (int) - The width of the expected output
+     * @param height (int) - The height of the expected output
+     * @return (int[]) - Packed ARGB pixels of the image, row after row
+     * @throws AssertionError if the data is null or the size is invalid
+     */
+    public static int[] decodePixels(byte[] data, int width, int height){
         assert(data!=null);
         assert(width>0 && height>0);
-        byte[] previous_pixel = QOISpecification.START_PIXEL;
-        byte[][] hash_table = new byte[64][4];
-        int i=0;
-        int ii = 0;
-        int repeats;
-        byte[][] buffer = new byte[(width*height)][4];
-        while (i<data.length && ii<buffer.length){
-            if (data[i]== QOISpecification.QOI_OP_RGBA_TAG){
-                i+= decodeQoiOpRGBA(buffer,data,ii,i+1)+1;
+        int[] pixels = new int[width*height];
+        new QOIDecoderState().decode(data, 0, pixels, 0, pixels.length);
+        return pixels;
+    }
 
-            }
-            else if (data[i]== QOISpecification.QOI_OP_RGB_TAG){
-                i+= decodeQoiOpRGB(buffer,data,previous_pixel[3],ii,i+1)+1;
-                // System.out.println("RGba");
-            }
-            else{
-                byte tag = (byte) (data[i]&11000000);
-                switch (tag){
-                    case QOISpecification.QOI_OP_RUN_TAG:
-                        repeats = decodeQoiOpRun(buffer,previous_pixel,data[i],ii);
-                        ii+=repeats;
-                        i+=1;
-                        break;
-                    case QOISpecification.QOI_OP_INDEX_TAG:
-                        buffer[ii]=hash_table[data[i]-QOISpecification.QOI_OP_INDEX_TAG];
-                        i++;
-                        break;
-                    case QOISpecification.QOI_OP_LUMA_TAG:
-                        buffer[ii] = decodeQoiOpLuma(previous_pixel,ArrayUtils.extract(data,i,2));
-                        i+=2;
-                        break;
-                    case QOISpecification.QOI_OP_DIFF_TAG:
-                        buffer[ii] = decodeQoiOpDiff(previous_pixel,data[i]);
-                        i++;
-                        break;
-                }
-            }
-            if (ii<buffer.length){
-                previous_pixel = buffer[ii];
-                hash_table[QOISpecification.hash(buffer[ii])] = buffer[ii];
-            }
-            ii++;
+    /**
+     * Decode the given data using the "Quite Ok Image" Protocol directly into the rows of an image
+     * @param data (byte[]) - Data to decode
+     * @param position (int) - Index in the data of the first chunk
+     * @param image (int[][]) - Rows where to write the packed ARGB pixels (same format as Helper.Image::data)
+     * @return (int) - Index in the data right after the last decoded chunk
+     * @throws AssertionError if the data or the image is null
+     */
+    static int decodeData(byte[] data, int position, int[][] image){
+        assert(data!=null && image!=null);
+        QOIDecoderState state = new QOIDecoderState();
+        for (int[] row : image) {
+            position = state.decode(data, position, row, 0, row.length);
         }
-        //assert(i==data.length && ii==buffer.length);
-        return buffer;
+        assert(state.run==0);
+        return position;
     }
 
     /**
@@ -223,17 +297,176 @@ public final class QOIDecoder {
      * @param content (byte[]) - Content of the file to decode
      * @return (Image) - Decoded image
      * @throws AssertionError if content is null
+     * @throws RuntimeException if content does not start with QOISpecification.QOI_MAGIC
      */
     public static Image decodeQoiFile(byte[] content){
         assert (content != null);
-        int[] header = new int[4];
-        byte[][] contentP = ArrayUtils.partition(content,14,content.length-22,8);
-        int[] eof=new int[8];
-        header = decodeHeader(contentP[0]);
-        byte[][] decodedPixels=decodeData(contentP[1],header[0],header[1]);
-        int[][] data = ArrayUtils.channelsToImage(decodedPixels,header[1],header[0]);
-        assert(ArrayUtils.equals(contentP[2],QOISpecification.QOI_EOF));
+        assert (content.length >= QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length);
+        checkMagic(content);
+        int[] header = decodeHeader(Arrays.copyOf(content, QOISpecification.HEADER_SIZE));
+        int[][] data = new int[header[1]][header[0]];
+        int position = decodeData(content, QOISpecification.HEADER_SIZE, data);
+        assert(position == content.length - QOISpecification.QOI_EOF.length);
+        assert(Arrays.equals(content, position, content.length, QOISpecification.QOI_EOF, 0, QOISpecification.QOI_EOF.length));
+        return Helper.generateImage(data, (byte)header[2],(byte) header[3]);
+    }
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol into a thumbnail, scale times smaller
+     * @apiNote The rows are decoded one by one and box-filtered (scale x scale pixels) into one
+     * row of sums as soon as they are decoded : only one row of the image and one row of the
+     * thumbnail are kept on top of the thumbnail itself, the image is never stored as a whole.
+     * Each channel is averaged on its own (alpha is not premultiplied) and rounded to the
+     * nearest. On the right and bottom edges, the boxes only cover the remaining pixels
+     * @param content (byte[]) - Content of the file to decode
+     * @param scale (int) - Size of the side of a box, 1 gives the image itself
+     * @return (Image) - Thumbnail of ceil(width / scale) x ceil(height / scale) pixels
+     * @throws AssertionError if content is null or is not a valid "Quite Ok Image" file,
+     * or if the scale is not positive or so large that the sums of a box may overflow
+     */
+    public static Image decodeThumbnail(byte[] content, int scale){
+        assert (content != null);
+        assert (scale > 0 && (long) scale * scale * 255 <= Integer.MAX_VALUE);
+        assert (content.length >= QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length);
+        checkMagic(content);
+        int[] header = decodeHeader(Arrays.copyOf(content, QOISpecification.HEADER_SIZE));
+        int width = header[0];
+        int height = header[1];
+        int[][] data = new int[(height + scale - 1) / scale][(width + scale - 1) / scale];
+        int boxes = data[0].length;
+        int[] row = new int[width];
+        int[] alpha = new int[boxes];
+        int[] red = new int[boxes];
+        int[] green = new int[boxes];
+        int[] blue = new int[boxes];
+        QOIDecoderState state = new QOIDecoderState();
+        int position = QOISpecification.HEADER_SIZE;
+        for (int y = 0; y < height; ++y) {
+            position = state.decode(content, position, row, 0, width);
+            for (int b = 0, x = 0; b < boxes; ++b) {
+                int end = Math.min(x + scale, width);
+                for (; x < end; ++x) {
+                    int pixel = row[x];
+                    alpha[b] += pixel >>> 24;
+                    red[b] += pixel >> 16 & 0xFF;
+                    green[b] += pixel >> 8 & 0xFF;
+                    blue[b] += pixel & 0xFF;
+                }
+            }
+            if ((y + 1) % scale != 0 && y + 1 != height)
+                continue;
+            int[] thumbnail = data[y / scale];
+            int rows = y % scale + 1;
+            for (int b = 0; b < boxes; ++b) {
+                int count = rows * Math.min(scale, width - b * scale);
+                int half = count / 2;
+                thumbnail[b] = (alpha[b] + half) / count << 24 | (red[b] + half) / count << 16
+                        | (green[b] + half) / count << 8 | (blue[b] + half) / count;
+            }
+            Arrays.fill(alpha, 0);
+            Arrays.fill(red, 0);
+            Arrays.fill(green, 0);
+            Arrays.fill(blue, 0);
+        }
+        assert(state.run==0);
+        assert(position == content.length - QOISpecification.QOI_EOF.length);
+        assert(Arrays.equals(content, position, content.length, QOISpecification.QOI_EOF, 0, QOISpecification.QOI_EOF.length));
+        return Helper.generateImage(data, (byte)header[2],(byte) header[3]);
+    }
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol straight into a BufferedImage
+     * @apiNote The packed pixels are written directly in the DataBufferInt backing the image
+     * (BufferedImage.TYPE_INT_ARGB for 4 channels, BufferedImage.TYPE_INT_RGB for 3) : no
+     * int[][] is built and BufferedImage::setRGB is never called. The color space is not kept
+     * @param content (byte[]) - Content of the file to decode
+     * @return (BufferedImage) - Decoded image
+     * @throws AssertionError if content is null or is not a valid "Quite Ok Image" file
+     */
+    public static BufferedImage decodeBufferedImage(byte[] content){
+        assert (content != null);
+        assert (content.length >= QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length);
+        checkMagic(content);
+        int[] header = decodeHeader(Arrays.copyOf(content, QOISpecification.HEADER_SIZE));
+        int type = header[2] == QOISpecification.RGBA ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage image = new BufferedImage(header[0], header[1], type);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        QOIDecoderState state = new QOIDecoderState();
+        int position = state.decode(content, QOISpecification.HEADER_SIZE, pixels, 0, pixels.length);
+        assert(state.run==0);
+        assert(position == content.length - QOISpecification.QOI_EOF.length);
+        assert(Arrays.equals(content, position, content.length, QOISpecification.QOI_EOF, 0, QOISpecification.QOI_EOF.length));
+        return image;
+    }
+
+    /**
+     * Decode only the first rows of a file using the "Quite Ok Image" Protocol
+     * @apiNote Only the requested rows are allocated and the chunks are read until the last
+     * pixel of the last requested row : the rest of the file, QOISpecification.QOI_EOF
+     * included, is never looked at. To preview a file without reading it all, see
+     * QOIStreamDecoder::readRow
+     * @param content (byte[]) - Content of the file to decode
+     * @param rows (int) - Number of rows to decode, the height of the image at most
+     * @return (Image) - Image made of the first rows
+     * @throws AssertionError if content is null, if the number of rows is not positive
+     * or if the content ends before the last requested row
+     */
+    public static Image decodeQoiFile(byte[] content, int rows){
+        assert (content != null);
+        assert (rows > 0);
+        assert (content.length >= QOISpecification.HEADER_SIZE);
+        checkMagic(content);
+        int[] header = decodeHeader(Arrays.copyOf(content, QOISpecification.HEADER_SIZE));
+        int[][] data = new int[Math.min(rows, header[1])][header[0]];
+        QOIDecoderState state = new QOIDecoderState();
+        int position = QOISpecification.HEADER_SIZE;
+        for (int[] row : data) {
+            if (content.length - position >= (long) row.length * QOIEncoderState.MAX_CHUNK_SIZE) {
+                position = state.decode(content, position, row, 0, row.length);
+                continue;
+            }
+            // Close to the end of the content, every chunk is checked before being read
+            for (int x = 0; x < row.length; ++x) {
+                if (state.run == 0) {
+                    assert (position < content.length);
+                    assert (position + QOIDecoderState.size(content[position]) <= content.length);
+                }
+                position = state.decode(content, position, row, x, x + 1);
+            }
+        }
         return Helper.generateImage(data, (byte)header[2],(byte) header[3]);
     }
 
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol straight from the disk
+     * @apiNote The file is mapped in memory (FileChannel::map), the header and
+     * QOISpecification.QOI_EOF are checked in place and the chunks are decoded from the
+     * mapping through a window of two rows straight into the rows of the image : the content of the file is never copied
+     * as a whole on the heap. Files larger than 2 GiB are not supported
+     * @param path (Path) - Path of the file to decode
+     * @return (Image) - Decoded image
+     * @throws AssertionError if path is null or the file is not a valid "Quite Ok Image" file
+     */
+    public static Image decodeQoiFile(Path path){
+        assert (path != null);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            assert (channel.size() <= Integer.MAX_VALUE);
+            MappedByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            assert (content.limit() >= QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length);
+            byte[] header = new byte[QOISpecification.HEADER_SIZE];
+            content.get(0, header);
+            checkMagic(header);
+            int[] info = decodeHeader(header);
+            int[][] data = new int[info[1]][info[0]];
+            int position = QOIBuffers.decodeRows(content, QOISpecification.HEADER_SIZE, data);
+            assert (position == content.limit() - QOISpecification.QOI_EOF.length);
+            for (int i = 0; i < QOISpecification.QOI_EOF.length; ++i) {
+                assert (content.get(position + i) == QOISpecification.QOI_EOF[i]);
+            }
+            return Helper.generateImage(data, (byte) info[2], (byte) info[3]);
+        } catch (IOException e){
+            return Helper.fail("An error occurred while trying to read from : \"%s\"%n", path);
+        }
+    }
+
 }
\ No newline at end of file
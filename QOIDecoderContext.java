@@ -0,0 +1,114 @@
+package cs107;
+
+/**
+ * Reusable "Quite Ok Image" Decoder. The context owns the state of the decoder and the
+ * pixels of the decoded image, both are reused from one image to the next as long as the
+ * images have the same size : decoding many small images does not pay for new buffers every time.
+ * @apiNote A context is NOT thread-safe, it must only be used by one thread at a time.
+ * QOIDecoderContext::local gives each thread its own context.
+ * @version 1.3
+ * @since 1.3
+ */
+public final class QOIDecoderContext {
+
+    private static final ThreadLocal<QOIDecoderContext> LOCAL = ThreadLocal.withInitial(QOIDecoderContext::new);
+
+    private final QOIDecoderState state = new QOIDecoderState();
+    private int[][] data = new int[0][];
+
+    /**
+     * Create a new context with empty buffers
+     */
+    public QOIDecoderContext(){}
+
+    /**
+     * Context of the calling thread
+     * @return (QOIDecoderContext) - Context owned by the calling thread
+     */
+    public static QOIDecoderContext local(){
+        return LOCAL.get();
+    }
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol
+     * @apiNote The pixels of the returned image belong to the context, they are
+     * overwritten by the next call. Copy them to keep them longer.
+     * @param content (byte[]) - Content of the file to decode
+     * @return (Helper.Image) - Decoded image
+     * @throws AssertionError if content is null or is not a valid "Quite Ok Image" file
+     */
+    public Helper.Image decode(byte[] content){
+        checkHeader(content);
+        int width = QOIDecoder.toInt(content, 4);
+        int height = QOIDecoder.toInt(content, 8);
+        if (data.length != height || data[0].length != width) {
+            data = new int[height][width];
+        }
+        decodeInto(content, data);
+        return new Helper.Image(data, content[12], content[13]);
+    }
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol into the given rows
+     * @apiNote Nothing is allocated : reusing the same rows and the same context,
+     * a decoding loop produces no garbage
+     * @param content (byte[]) - Content of the file to decode
+     * @param image (int[][]) - Rows where to write the packed ARGB pixels (same format as
+     * Helper.Image::data), their size must be the one given by the header
+     * @throws AssertionError if content is null or is not a valid "Quite Ok Image" file,
+     * or if the image is null or does not have the size given by the header
+     */
+    public void decodeInto(byte[] content, int[][] image){
+        checkHeader(content);
+        int width = QOIDecoder.toInt(content, 4);
+        assert image != null && image.length == QOIDecoder.toInt(content, 8);
+        state.reset();
+        int position = QOISpecification.HEADER_SIZE;
+        for (int[] row : image) {
+            assert row != null && row.length == width;
+            position = state.decode(content, position, row, 0, width);
+        }
+        checkEnd(content, position);
+    }
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol into the given array, row after row
+     * @apiNote Nothing is allocated. The array may be larger than the image (a buffer taken
+     * from a pool for instance), only its first width * height entries are written
+     * @param content (byte[]) - Content of the file to decode
+     * @param pixels (int[]) - Array where to write the packed ARGB pixels
+     * @return (int) - Number of written pixels (width * height)
+     * @throws AssertionError if content is null or is not a valid "Quite Ok Image" file,
+     * or if the array is null or too small for the size given by the header
+     */
+    public int decodeInto(byte[] content, int[] pixels){
+        checkHeader(content);
+        long size = (long) QOIDecoder.toInt(content, 4) * QOIDecoder.toInt(content, 8);
+        assert pixels != null && pixels.length >= size;
+        state.reset();
+        int position = state.decode(content, QOISpecification.HEADER_SIZE, pixels, 0, (int) size);
+        checkEnd(content, position);
+        return (int) size;
+    }
+
+    // ==================================================================================
+    // ================================= HELPER METHODS =================================
+    // ==================================================================================
+
+    private static void checkHeader(byte[] content){
+        assert content != null;
+        assert content.length >= QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length;
+        QOIDecoder.checkMagic(content);
+        assert QOIDecoder.isHeader(content, 0);
+        assert QOIDecoder.toInt(content, 4) > 0 && QOIDecoder.toInt(content, 8) > 0;
+    }
+
+    private void checkEnd(byte[] content, int position){
+        assert state.run == 0;
+        assert position == content.length - QOISpecification.QOI_EOF.length;
+        for (int i = 0; i < QOISpecification.QOI_EOF.length; ++i) {
+            assert content[position + i] == QOISpecification.QOI_EOF[i];
+        }
+    }
+
+}
@@ -0,0 +1,252 @@
+package cs107;
+
+import java.util.Arrays;
+
+/**
+ * Running state of the "Quite Ok Image" decoder : the previous pixel, the pixels left
+ * in the current run and the 64 entries index. The state is carried from one call to
+ * the next, which allows an image to be decoded piece by piece (row by row for instance).
+ * @apiNote Pixels are packed ARGB integers, the same format as Helper.Image::data.
+ * Chunks are dispatched on a table indexed by their tag, the differences of the
+ * QOI_OP_DIFF and QOI_OP_LUMA chunks are read from precomputed tables as well
+ * @version 1.3
+ * @since 1.3
+ */
+final class QOIDecoderState {
+
+    private static final byte OP_INDEX = 0;
+    private static final byte OP_DIFF = 1;
+    private static final byte OP_LUMA = 2;
+    private static final byte OP_RUN = 3;
+    private static final byte OP_RGB = 4;
+    private static final byte OP_RGBA = 5;
+
+    /**
+     * Operation of every tag (first byte of a chunk)
+     */
+    private static final byte[] OPERATIONS = new byte[256];
+
+    /**
+     * Packed difference of every tag : (0, dr, dg, db) for a QOI_OP_DIFF tag,
+     * (0, dg, dg, dg) for a QOI_OP_LUMA tag. Each byte wraps around on its own
+     */
+    private static final int[] DIFFERENCES = new int[256];
+
+    /**
+     * Packed difference (0, dr - dg, 0, db - dg) of every second byte of a QOI_OP_LUMA chunk
+     */
+    private static final int[] LUMA_RED_BLUE = new int[256];
+
+    static {
+        for (int tag = 0; tag < 256; ++tag) {
+            switch (tag >> 6) {
+                case 0 -> OPERATIONS[tag] = OP_INDEX;
+                case 1 -> {
+                    OPERATIONS[tag] = OP_DIFF;
+                    DIFFERENCES[tag] = pack((tag >> 4 & 3) - 2, (tag >> 2 & 3) - 2, (tag & 3) - 2);
+                }
+                case 2 -> {
+                    int dg = (tag & 0x3F) - 32;
+                    OPERATIONS[tag] = OP_LUMA;
+                    DIFFERENCES[tag] = pack(dg, dg, dg);
+                }
+                default -> OPERATIONS[tag] = OP_RUN;
+            }
+            LUMA_RED_BLUE[tag] = pack((tag >> 4) - 8, 0, (tag & 0x0F) - 8);
+        }
+        OPERATIONS[QOISpecification.QOI_OP_RGB_TAG & 0xFF] = OP_RGB;
+        OPERATIONS[QOISpecification.QOI_OP_RGBA_TAG & 0xFF] = OP_RGBA;
+    }
+
+    /**
+     * Previous pixel (packed ARGB)
+     */
+    int previous;
+
+    /**
+     * Number of pixels of the current QOI_OP_RUN chunk that are not written yet
+     */
+    int run;
+
+    /**
+     * Running index of the previously seen pixels (packed ARGB)
+     */
+    final int[] index = new int[64];
+
+    /**
+     * Create a new state, ready to decode the first chunk of an image
+     */
+    QOIDecoderState(){
+        reset();
+    }
+
+    /**
+     * Reset the state to the one expected before the first chunk of an image
+     */
+    void reset(){
+        previous = QOIEncoderState.START_PIXEL;
+        run = 0;
+        Arrays.fill(index, 0);
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode the chunks starting at the given position until the given pixels are written
+     * @apiNote The pixels of a QOI_OP_RUN chunk that do not fit are kept in the state
+     * and written first by the next call. As long as the pixels are opaque, the chunks
+     * are decoded by QOIDecoderState::decodeOpaque
+     * @param input (byte[]) - Chunks to decode
+     * @param position (int) - Index in the input of the first chunk to decode
+     * @param pixels (int[]) - Buffer where to write the packed ARGB pixels
+     * @param from (int) - Index of the first pixel to write (inclusive)
+     * @param to (int) - Index of the last pixel to write (exclusive)
+     * @return (int) - Index in the input right after the last decoded chunk
+     * @throws AssertionError if the input or the pixels are null or the range is invalid
+     */
+    int decode(byte[] input, int position, int[] pixels, int from, int to){
+        assert input != null && pixels != null;
+        assert 0 <= from && from <= to && to <= pixels.length;
+        if (previous >>> 24 == 0xFF)
+            return decodeOpaque(input, position, pixels, from, to);
+        return decodeAny(input, position, pixels, from, to);
+    }
+
+    /**
+     * Same as QOIDecoderState::decode for opaque pixels : the QOI_OP_RGB chunks and the hash
+     * do not read the alpha channel and there is no QOI_OP_RGBA case. The opacity is not
+     * known in advance (a 4 channels image is often opaque) : the loop stops right before
+     * the first chunk that gives a pixel that is not opaque and QOIDecoderState::decodeAny
+     * decodes the rest
+     * @apiNote The previous pixel must be opaque
+     */
+    private int decodeOpaque(byte[] input, int position, int[] pixels, int from, int to){
+        assert previous >>> 24 == 0xFF;
+        int previous = this.previous;
+        int run = this.run;
+        int p = position;
+        int i = from;
+        decoding:
+        while (i < to) {
+            if (run > 0) {
+                int count = Math.min(run, to - i);
+                Arrays.fill(pixels, i, i + count, previous);
+                i += count;
+                run -= count;
+                continue;
+            }
+            int tag = input[p++] & 0xFF;
+            switch (OPERATIONS[tag]) {
+                case OP_INDEX -> {
+                    if (index[tag] >>> 24 != 0xFF) {
+                        p -= 1;
+                        break decoding;
+                    }
+                    previous = index[tag];
+                }
+                case OP_DIFF -> previous = QOIEncoderState.add(previous, DIFFERENCES[tag]);
+                case OP_LUMA -> previous = QOIEncoderState.add(previous,
+                        QOIEncoderState.add(DIFFERENCES[tag], LUMA_RED_BLUE[input[p++] & 0xFF]));
+                case OP_RUN -> {
+                    run = tag - (QOISpecification.QOI_OP_RUN_TAG & 0xFF) + 1;
+                    continue;
+                }
+                case OP_RGB -> {
+                    previous = 0xFF_00_00_00 | (input[p] & 0xFF) << 16 | (input[p + 1] & 0xFF) << 8 | (input[p + 2] & 0xFF);
+                    p += 3;
+                }
+                default -> {
+                    p -= 1;
+                    break decoding;
+                }
+            }
+            index[QOIEncoderState.hashOpaque(previous)] = previous;
+            pixels[i++] = previous;
+        }
+        this.previous = previous;
+        this.run = run;
+        return i == to ? p : decodeAny(input, p, pixels, i, to);
+    }
+
+    /**
+     * Same as QOIDecoderState::decode for any pixel
+     */
+    private int decodeAny(byte[] input, int position, int[] pixels, int from, int to){
+        int previous = this.previous;
+        int run = this.run;
+        int p = position;
+        int i = from;
+        while (i < to) {
+            if (run > 0) {
+                int count = Math.min(run, to - i);
+                Arrays.fill(pixels, i, i + count, previous);
+                i += count;
+                run -= count;
+                continue;
+            }
+            int tag = input[p++] & 0xFF;
+            switch (OPERATIONS[tag]) {
+                case OP_INDEX -> previous = index[tag];
+                case OP_DIFF -> previous = QOIEncoderState.add(previous, DIFFERENCES[tag]);
+                case OP_LUMA -> previous = QOIEncoderState.add(previous,
+                        QOIEncoderState.add(DIFFERENCES[tag], LUMA_RED_BLUE[input[p++] & 0xFF]));
+                case OP_RUN -> {
+                    run = tag - (QOISpecification.QOI_OP_RUN_TAG & 0xFF) + 1;
+                    continue;
+                }
+                case OP_RGB -> {
+                    previous = (previous & 0xFF_00_00_00) | (input[p] & 0xFF) << 16 | (input[p + 1] & 0xFF) << 8 | (input[p + 2] & 0xFF);
+                    p += 3;
+                }
+                default -> {
+                    previous = (input[p + 3] & 0xFF) << 24 | (input[p] & 0xFF) << 16 | (input[p + 1] & 0xFF) << 8 | (input[p + 2] & 0xFF);
+                    p += 4;
+                }
+            }
+            index[QOISpecification.hash(previous)] = previous;
+            pixels[i++] = previous;
+        }
+        this.previous = previous;
+        this.run = run;
+        return p;
+    }
+
+    /**
+     * Size of the chunk starting with the given tag
+     * @param tag (byte) - First byte of a chunk
+     * @return (int) - Size of the chunk, tag included (1 to 5 bytes)
+     */
+    static int size(byte tag){
+        return switch (OPERATIONS[tag & 0xFF]) {
+            case OP_LUMA -> 2;
+            case OP_RGB -> 4;
+            case OP_RGBA -> 5;
+            default -> 1;
+        };
+    }
+
+    /**
+     * Pack the differences of the color channels, each one in its own byte
+     */
+    private static int pack(int dr, int dg, int db){
+        return (dr & 0xFF) << 16 | (dg & 0xFF) << 8 | (db & 0xFF);
+    }
+
+    /**
+     * Add the given differences to the color channels of a pixel, each channel wraps around
+     * @param pixel (int) - Packed ARGB pixel
+     * @param dr (int) - Difference of the red channel
+     * @param dg (int) - Difference of the green channel
+     * @param db (int) - Difference of the blue channel
+     * @return (int) - Packed ARGB pixel with the same alpha
+     */
+    static int add(int pixel, int dr, int dg, int db){
+        return (pixel & 0xFF_00_00_00)
+                | ((pixel >> 16) + dr & 0xFF) << 16
+                | ((pixel >> 8) + dg & 0xFF) << 8
+                | (pixel + db & 0xFF);
+    }
+
+}
@@ -1,5 +1,5 @@
 package cs107;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * "Quite Ok Image" Encoder
@@ -28,16 +28,48 @@ public final class QOIEncoder {
      */
     public static byte[] qoiHeader(Helper.Image image){
         assert (image!=null);
-        assert(image.channels()==QOISpecification.RGB || image.channels()==QOISpecification.RGBA);
-        assert(image.color_space()==QOISpecification.sRGB || image.color_space()==QOISpecification.ALL);
-        byte[] width = ArrayUtils.concat((byte)((image.data()).length>>24),(byte)((image.data()).length>>16),(byte)((image.data()).length>>8),(byte)((image.data()).length));
-        byte[] height = ArrayUtils.concat((byte)((image.data()[0]).length>>24),(byte)((image.data()[0]).length>>16),(byte)((image.data()[0]).length>>8),(byte)((image.data()[0]).length));
-        byte channels = image.channels();
-        byte colorSpace = image.color_space();
-        byte[] header = new byte[]{(byte)QOISpecification.QOI_MAGIC[0], (byte)QOISpecification.QOI_MAGIC[1], (byte)QOISpecification.QOI_MAGIC[2], (byte)QOISpecification.QOI_MAGIC[3],height[0],height[1],height[2],height[3],width[0],width[1],width[2],width[3],channels,colorSpace};
+        return qoiHeader(image.data()[0].length, image.data().length, image.channels(), image.color_space());
+    }
+
+    /**
+     * Generate a "Quite Ok Image" header using the following parameters
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @throws AssertionError if the colorspace or the number of channels is corrupted
+     * @return (byte[]) - Corresponding "Quite Ok Image" Header
+     */
+    public static byte[] qoiHeader(int width, int height, byte channels, byte colorSpace){
+        byte[] header = new byte[QOISpecification.HEADER_SIZE];
+        qoiHeader(width, height, channels, colorSpace, header, 0);
         return header;
     }
 
+    /**
+     * Write a "Quite Ok Image" header in the given buffer
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @param buffer (byte[]) - Buffer where to write the header
+     * @param position (int) - Index in the buffer to start writing from
+     * @throws AssertionError if the colorspace or the number of channels is corrupted
+     * @return (int) - Index in the buffer right after the header
+     */
+    static int qoiHeader(int width, int height, byte channels, byte colorSpace, byte[] buffer, int position){
+        assert(channels==QOISpecification.RGB || channels==QOISpecification.RGBA);
+        assert(colorSpace==QOISpecification.sRGB || colorSpace==QOISpecification.ALL);
+        System.arraycopy(QOISpecification.QOI_MAGIC, 0, buffer, position, QOISpecification.QOI_MAGIC.length);
+        for (int i = 0; i < 4; ++i) {
+            buffer[position+4+i] = (byte) (width >> (24 - 8*i));
+            buffer[position+8+i] = (byte) (height >> (24 - 8*i));
+        }
+        buffer[position+12] = channels;
+        buffer[position+13] = colorSpace;
+        return position+QOISpecification.HEADER_SIZE;
+    }
+
     // ==================================================================================
     // ============================ ATOMIC ENCODING METHODS =============================
     // ==================================================================================
@@ -156,75 +188,48 @@ public final class QOIEncoder {
      * @return (byte[]) - "Quite Ok Image" representation of the image
      */
     public static byte[] encodeData(byte[][] image){
-        byte[] previous_pixel = QOISpecification.START_PIXEL;
-        byte[][] hash_table = new byte[64][4];
-        byte[] repeat = new byte[1];
-        //ArrayList<byte[]> repetitions= new ArrayList<byte[]>();
-        ArrayList<byte[]> encoding = new ArrayList<byte[]>();
-        int counter = 0;
-        byte[] index = new byte[1];
-        /**
-         * Iterate over pixels
-         */
+        assert(image!=null);
+        int[] pixels = new int[image.length];
         for (int i = 0; i < image.length; ++i) {
-            if (i!=0){
-                previous_pixel = image[i-1];
-            }
-            if (ArrayUtils.equals(image[i],previous_pixel)) {
-                counter += 1;
-                if ((counter == 62) || (i == image.length - 1)) {
-                    encoding.add(qoiOpRun((byte) counter));
-                    counter = 0;
-                }
-                continue;
-            }
-            else {
-                if (i!=0 && counter>0){
-                    encoding.add(qoiOpRun((byte) counter));
-                    counter = 0;
-                }
-            }
-            if (image[i] == hash_table[QOISpecification.hash(image[i])]) {
-                encoding.add(ArrayUtils.wrap((byte) i));
-                continue;
-            } else {
-                hash_table[QOISpecification.hash(image[i])] = image[i];
-            }
-            if (image[i][3] == previous_pixel[3]) {
-                byte dr = (byte) (image[i][0] - previous_pixel[0]);
-                byte dg = (byte) (image[i][1] - previous_pixel[1]);
-                byte db = (byte) (image[i][2] - previous_pixel[2]);
-                boolean small = true;
-                boolean similar = true;
-                byte[] diff = {dr, dg, db};
-                for (int j = 0; j < 3; j++) {
-                    if ((-2 > diff[j]) || (diff[j] > 2)) {
-                        small = false;
-                    }
-                    if ((-33 > diff[1]) || (diff[1] > 32) ||
-                            (-9 > (diff[0] - diff[1])) || (diff[0] - diff[1] > 8) ||
-                            (-9 > (diff[2] - diff[1]) || (diff[2] - diff[1] > 8))) {
-                        similar = false;
-                    }
-                }
-                if (small) {
-                    encoding.add(qoiOpDiff(diff));
-                    continue;
-                } else if (similar) {
-                    encoding.add(qoiOpLuma(diff));
-                    continue;
-                } else {
-                    encoding.add(qoiOpRGB(image[i]));
-                    continue;
-                }
-            }
-            else {
-                encoding.add(qoiOpRGBA(image[i]));
-            }
+            assert(image[i]!=null && image[i].length==4);
+            pixels[i] = (image[i][3]&0xFF)<<24 | (image[i][0]&0xFF)<<16 | (image[i][1]&0xFF)<<8 | (image[i][2]&0xFF);
+        }
+        QOIEncoderState state = new QOIEncoderState();
+        byte[] buffer = new byte[pixels.length*QOIEncoderState.MAX_CHUNK_SIZE+1];
+        int length = state.flush(buffer, state.encode(pixels, 0, pixels.length, buffer, 0));
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Encode the given image using the "Quite Ok Image" Protocol
+     * @apiNote The pixels are read as packed ARGB integers, they are only split
+     * into channels when a QOI_OP_RGB or QOI_OP_RGBA chunk is written
+     * @param image (int[][]) - ARGB pixels of the image (same format as Helper.Image::data)
+     * @return (byte[]) - "Quite Ok Image" representation of the image
+     * @throws AssertionError if the image is null
+     */
+    public static byte[] encodeData(int[][] image){
+        assert(image!=null);
+        byte[] buffer = new byte[image.length*image[0].length*QOIEncoderState.MAX_CHUNK_SIZE+1];
+        int length = encodeData(image, buffer, 0);
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Encode the given image using the "Quite Ok Image" Protocol directly into the given buffer
+     * @param image (int[][]) - ARGB pixels of the image (same format as Helper.Image::data)
+     * @param buffer (byte[]) - Buffer where to write the encoding
+     * @param position (int) - Index in the buffer to start writing from
+     * @return (int) - Index in the buffer right after the last written byte
+     * @throws AssertionError if the image or the buffer is null
+     */
+    static int encodeData(int[][] image, byte[] buffer, int position){
+        assert(image!=null && buffer!=null);
+        QOIEncoderState state = new QOIEncoderState();
+        for (int[] row : image) {
+            position = state.encode(row, 0, row.length, buffer, position);
         }
-        byte[][] encodedPixels2D = encoding.toArray(new byte[0][]);
-        byte[] encodedPixels1D = ArrayUtils.concat(encodedPixels2D);
-        return encodedPixels1D;
+        return state.flush(buffer, position);
     }
 
     /**
@@ -238,10 +243,79 @@ public final class QOIEncoder {
     public static byte[] qoiFile(Helper.Image image){
         assert(image!=null);
         byte[] header = qoiHeader(image);
-        byte[][] content = ArrayUtils.imageToChannels(image.data());
-        byte[] encodeContent = encodeData(content);
-        byte[] encodePixels = ArrayUtils.concat(header,encodeContent,QOISpecification.QOI_EOF);
-        return encodePixels;
+        int pixels = image.data().length*image.data()[0].length;
+        byte[] buffer = new byte[header.length+pixels*QOIEncoderState.MAX_CHUNK_SIZE+1+QOISpecification.QOI_EOF.length];
+        System.arraycopy(header, 0, buffer, 0, header.length);
+        int position = encodeData(image.data(), buffer, header.length);
+        System.arraycopy(QOISpecification.QOI_EOF, 0, buffer, position, QOISpecification.QOI_EOF.length);
+        return Arrays.copyOf(buffer, position+QOISpecification.QOI_EOF.length);
+    }
+
+    // ==================================================================================
+    // ============================== SIZE ESTIMATION METHODS  ==========================
+    // ==================================================================================
+
+    /**
+     * Compute the size of the "Quite Ok Image" encoding of the image without producing it
+     * @param image (Helper.Image) - Image to measure
+     * @return (QOISizeEstimate) - Exact number of chunks of each kind
+     * @throws AssertionError if the image is null
+     */
+    public static QOISizeEstimate estimateSize(Helper.Image image){
+        return estimateSize(image, 1);
+    }
+
+    /**
+     * Estimate the size of the "Quite Ok Image" encoding of the image by only encoding
+     * one row out of step. Before each sampled row, the row above it is encoded without
+     * being counted, so that the previous pixel, the index and the pending run are close
+     * to the ones of the real encoding. The result is then extrapolated to the whole image.
+     * @apiNote The sampled rows are really encoded, in a scratch row : a sample costs
+     * two rows of encoding (one with step 1), the gain only comes from the skipped rows.
+     * The error is the 95% confidence interval computed from the variance of the size of
+     * the sampled rows, plus the rounding of the number of chunks of each kind
+     * @param image (Helper.Image) - Image to measure
+     * @param step (int) - Distance between two sampled rows (1 for the exact size)
+     * @return (QOISizeEstimate) - Estimated number of chunks of each kind
+     * @throws AssertionError if the image is null or the step is not positive
+     */
+    public static QOISizeEstimate estimateSize(Helper.Image image, int step){
+        assert(image!=null);
+        assert(step>0);
+        int[][] data = image.data();
+        QOIEncoderState state = new QOIEncoderState();
+        long[] chunks = new long[QOISizeEstimate.KINDS];
+        byte[] buffer = new byte[data[0].length * QOIEncoderState.MAX_CHUNK_SIZE + 1];
+        long previousSize = 0;
+        double sum = 0;
+        double squares = 0;
+        int samples = 0;
+        for (int y = 0; y < data.length; y += step) {
+            if (y > 0 && step > 1) {
+                state.encode(data[y - 1], 0, data[y - 1].length, buffer, 0);
+            }
+            state.encode(data[y], 0, data[y].length, buffer, 0, chunks);
+            long size = QOISizeEstimate.size(chunks);
+            sum += size - previousSize;
+            squares += (double) (size - previousSize) * (size - previousSize);
+            previousSize = size;
+            samples += 1;
+        }
+        // The run still pending after the last row of the image is flushed in a last chunk
+        int flush = (data.length - 1) % step == 0 && state.run > 0 ? 1 : 0;
+        double scale = (double) data.length / samples;
+        double error = 0;
+        if (samples < data.length) {
+            // Half a chunk of each kind is lost at most when rounding the numbers of chunks
+            error = (4 + 5 + 1 + 1 + 2 + 1) / 2d;
+            if (samples > 1) {
+                double variance = Math.max(0, (squares - sum * sum / samples) / (samples - 1));
+                error += 1.96 * data.length * Math.sqrt(variance / samples * (1 - 1d / scale));
+            }
+        }
+        return new QOISizeEstimate(Math.round(chunks[QOISizeEstimate.RGB] * scale), Math.round(chunks[QOISizeEstimate.RGBA] * scale),
+                Math.round(chunks[QOISizeEstimate.INDEX] * scale), Math.round(chunks[QOISizeEstimate.DIFF] * scale),
+                Math.round(chunks[QOISizeEstimate.LUMA] * scale), Math.round(chunks[QOISizeEstimate.RUN] * scale) + flush, error);
     }
 
 }
\ No newline at end of file
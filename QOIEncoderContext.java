@@ -0,0 +1,91 @@
+package cs107;
+
+import java.util.Arrays;
+
+/**
+ * Reusable "Quite Ok Image" Encoder. The context owns the state of the encoder and the
+ * output buffer, both are reused from one image to the next : encoding many small images
+ * does not pay for new buffers every time.
+ * @apiNote A context is NOT thread-safe, it must only be used by one thread at a time.
+ * QOIEncoderContext::local gives each thread its own context.
+ * The output buffer keeps the size of the largest image encoded so far.
+ * @version 1.3
+ * @since 1.3
+ */
+public final class QOIEncoderContext {
+
+    private static final ThreadLocal<QOIEncoderContext> LOCAL = ThreadLocal.withInitial(QOIEncoderContext::new);
+
+    private final QOIEncoderState state = new QOIEncoderState();
+    private byte[] buffer = new byte[0];
+    private int length;
+
+    /**
+     * Create a new context with empty buffers
+     */
+    public QOIEncoderContext(){}
+
+    /**
+     * Context of the calling thread
+     * @return (QOIEncoderContext) - Context owned by the calling thread
+     */
+    public static QOIEncoderContext local(){
+        return LOCAL.get();
+    }
+
+    /**
+     * Encode the "Quite Ok Image" file of the given image in the buffer of the context
+     * @apiNote The file is available with QOIEncoderContext::buffer until the next call
+     * @param image (Helper.Image) - Image to encode
+     * @return (int) - Length of the file, in bytes
+     * @throws AssertionError if the image is null
+     */
+    public int encode(Helper.Image image){
+        assert image != null;
+        int[][] data = image.data();
+        int width = data[0].length;
+        int height = data.length;
+        int capacity = QOISpecification.HEADER_SIZE + width * height * QOIEncoderState.MAX_CHUNK_SIZE + 1 + QOISpecification.QOI_EOF.length;
+        if (buffer.length < capacity) {
+            buffer = new byte[capacity];
+        }
+        state.reset();
+        int position = QOIEncoder.qoiHeader(width, height, image.channels(), image.color_space(), buffer, 0);
+        for (int[] row : data) {
+            position = state.encode(row, 0, width, buffer, position);
+        }
+        position = state.flush(buffer, position);
+        System.arraycopy(QOISpecification.QOI_EOF, 0, buffer, position, QOISpecification.QOI_EOF.length);
+        length = position + QOISpecification.QOI_EOF.length;
+        return length;
+    }
+
+    /**
+     * Creates the representation in memory of the "Quite Ok Image" file
+     * @apiNote Same as QOIEncoder::qoiFile, only the returned array is allocated
+     * @param image (Helper.Image) - Image to encode
+     * @return (byte[]) - Binary representation of the "Quite Ok File" of the image
+     * @throws AssertionError if the image is null
+     */
+    public byte[] qoiFile(Helper.Image image){
+        int length = encode(image);
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Buffer holding the last encoded file, its length is given by QOIEncoderContext::length
+     * @return (byte[]) - Buffer of the context, overwritten by the next call to encode
+     */
+    public byte[] buffer(){
+        return buffer;
+    }
+
+    /**
+     * Length of the last encoded file
+     * @return (int) - Number of bytes of the file in QOIEncoderContext::buffer
+     */
+    public int length(){
+        return length;
+    }
+
+}
@@ -0,0 +1,318 @@
+package cs107;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Running state of the "Quite Ok Image" encoder : the previous pixel, the pending run
+ * and the 64 entries index. The state is carried from one call to the next, which
+ * allows an image to be encoded piece by piece (row by row for instance).
+ * @apiNote Pixels are packed ARGB integers, the same format as Helper.Image::data
+ * @version 1.3
+ * @since 1.3
+ */
+final class QOIEncoderState {
+
+    /**
+     * Packed ARGB representation of QOISpecification.START_PIXEL
+     */
+    static final int START_PIXEL = 0xFF_00_00_00;
+
+    /**
+     * Size of the largest chunk (QOI_OP_RGBA)
+     */
+    static final int MAX_CHUNK_SIZE = 5;
+
+    /**
+     * Bias moving the QOI_OP_DIFF range [-2, 1] of every channel to [0, 3]
+     */
+    private static final int DIFF_BIAS = 0x00_02_02_02;
+
+    /**
+     * Bias moving the QOI_OP_LUMA range [-8, 7] of dr - dg and db - dg to [0, 15]
+     */
+    private static final int LUMA_BIAS = 0x00_08_00_08;
+
+    /**
+     * View of a byte[] as "Big Endian" integers, used to write a whole chunk at once
+     */
+    private static final VarHandle INT_VIEW = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * Previous pixel (packed ARGB)
+     */
+    int previous;
+
+    /**
+     * Number of pixels equal to the previous pixel that are not encoded yet
+     */
+    int run;
+
+    /**
+     * Running index of the previously seen pixels (packed ARGB)
+     */
+    final int[] index = new int[64];
+
+    /**
+     * Create a new state, ready to encode the first pixel of an image
+     */
+    QOIEncoderState(){
+        reset();
+    }
+
+    /**
+     * Reset the state to the one expected before the first pixel of an image
+     */
+    void reset(){
+        previous = START_PIXEL;
+        run = 0;
+        Arrays.fill(index, 0);
+    }
+
+    // ==================================================================================
+    // ================================ ENCODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Encode the given pixels and update the state accordingly.
+     * @apiNote A run that is still pending after the last pixel is kept in the state,
+     * call QOIEncoderState::flush once all the pixels of the image have been encoded.
+     * As long as the pixels are opaque, they are encoded by QOIEncoderState::encodeOpaque
+     * @param pixels (int[]) - Packed ARGB pixels to encode
+     * @param from (int) - Index of the first pixel to encode (inclusive)
+     * @param to (int) - Index of the last pixel to encode (exclusive)
+     * @param buffer (byte[]) - Buffer where to write the encoding, it must be able to hold
+     * MAX_CHUNK_SIZE bytes per pixel plus one byte for the pending run from the given position,
+     * even when the encoding is known to be smaller : the QOI_OP_DIFF, QOI_OP_LUMA and QOI_OP_RGB
+     * chunks are always written as 4 bytes, the spare bytes are overwritten by the next chunk
+     * @param position (int) - Index in the buffer to start writing from
+     * @return (int) - Index in the buffer right after the last written byte
+     * @throws AssertionError if the pixels or the buffer are null, if the range is invalid
+     * or if the buffer is too small
+     */
+    int encode(int[] pixels, int from, int to, byte[] buffer, int position){
+        if (previous >>> 24 == 0xFF)
+            return encodeOpaque(pixels, from, to, buffer, position);
+        return encode(pixels, from, to, buffer, position, null);
+    }
+
+    /**
+     * Same as QOIEncoderState::encode, the number of chunks of each kind is also accumulated
+     * @apiNote The chunks are counted in local variables and only added to the counters at
+     * the end, encoding without counting costs nothing more
+     * @param pixels (int[]) - Packed ARGB pixels to encode
+     * @param from (int) - Index of the first pixel to encode (inclusive)
+     * @param to (int) - Index of the last pixel to encode (exclusive)
+     * @param buffer (byte[]) - Buffer where to write the encoding (see QOIEncoderState::encode)
+     * @param position (int) - Index in the buffer to start writing from
+     * @param chunks (long[]) - Number of chunks, indexed by QOISizeEstimate.RGB, QOISizeEstimate.RGBA, ...
+     * or null to only encode the pixels
+     * @return (int) - Index in the buffer right after the last written byte
+     * @throws AssertionError if the pixels or the buffer are null, if the range is invalid
+     * or if the buffer is too small
+     */
+    int encode(int[] pixels, int from, int to, byte[] buffer, int position, long[] chunks){
+        assert pixels != null && buffer != null;
+        assert 0 <= from && from <= to && to <= pixels.length;
+        assert 0 <= position && buffer.length - position >= (long) (to - from) * MAX_CHUNK_SIZE + 1;
+        assert chunks == null || chunks.length == QOISizeEstimate.KINDS;
+        int previous = this.previous;
+        int run = this.run;
+        int p = position;
+        int runs = 0, indexes = 0, diffs = 0, lumas = 0, rgbs = 0, rgbas = 0;
+        for (int i = from; i < to; ++i) {
+            int pixel = pixels[i];
+            if (pixel == previous) {
+                // Scan the whole run at once, only the full chunks of 62 pixels are written
+                int end = i + 1;
+                while (end < to && pixels[end] == previous) {
+                    end += 1;
+                }
+                run += end - i;
+                while (run >= 62) {
+                    buffer[p++] = (byte) (QOISpecification.QOI_OP_RUN_TAG | 61);
+                    run -= 62;
+                    runs += 1;
+                }
+                i = end - 1;
+                continue;
+            }
+            if (run > 0) {
+                buffer[p++] = (byte) (QOISpecification.QOI_OP_RUN_TAG | (run - 1));
+                run = 0;
+                runs += 1;
+            }
+            int hash = QOISpecification.hash(pixel);
+            if (index[hash] == pixel) {
+                buffer[p++] = (byte) (QOISpecification.QOI_OP_INDEX_TAG | hash);
+                indexes += 1;
+                previous = pixel;
+                continue;
+            }
+            index[hash] = pixel;
+            if ((pixel ^ previous) >>> 24 == 0) {
+                int chunk = chunk(pixel, previous);
+                INT_VIEW.set(buffer, p, chunk);
+                p += length(chunk);
+                // The first 2 bits of the tag are 01, 10 or 11
+                int kind = chunk >>> 30;
+                diffs += kind & ~kind >> 1 & 1;
+                lumas += kind >> 1 & ~kind & 1;
+                rgbs += kind >> 1 & kind & 1;
+            } else {
+                buffer[p++] = QOISpecification.QOI_OP_RGBA_TAG;
+                buffer[p++] = (byte) (pixel >> 16);
+                buffer[p++] = (byte) (pixel >> 8);
+                buffer[p++] = (byte) pixel;
+                buffer[p++] = (byte) (pixel >>> 24);
+                rgbas += 1;
+            }
+            previous = pixel;
+        }
+        this.previous = previous;
+        this.run = run;
+        if (chunks != null) {
+            chunks[QOISizeEstimate.RUN] += runs;
+            chunks[QOISizeEstimate.INDEX] += indexes;
+            chunks[QOISizeEstimate.DIFF] += diffs;
+            chunks[QOISizeEstimate.LUMA] += lumas;
+            chunks[QOISizeEstimate.RGB] += rgbs;
+            chunks[QOISizeEstimate.RGBA] += rgbas;
+        }
+        return p;
+    }
+
+    /**
+     * Same as QOIEncoderState::encode for opaque pixels : the hash does not read the alpha
+     * channel and there is no QOI_OP_RGBA case. The opacity is not known in advance (scanning
+     * the pixels first costs more than it saves) : the loop stops at the first pixel that is
+     * not opaque and QOIEncoderState::encode with no counters encodes the rest
+     * @apiNote The previous pixel must be opaque
+     */
+    private int encodeOpaque(int[] pixels, int from, int to, byte[] buffer, int position){
+        assert pixels != null && buffer != null;
+        assert 0 <= from && from <= to && to <= pixels.length;
+        assert 0 <= position && buffer.length - position >= (long) (to - from) * MAX_CHUNK_SIZE + 1;
+        assert previous >>> 24 == 0xFF;
+        int previous = this.previous;
+        int run = this.run;
+        int p = position;
+        for (int i = from; i < to; ++i) {
+            int pixel = pixels[i];
+            if (pixel == previous) {
+                int end = i + 1;
+                while (end < to && pixels[end] == previous) {
+                    end += 1;
+                }
+                run += end - i;
+                while (run >= 62) {
+                    buffer[p++] = (byte) (QOISpecification.QOI_OP_RUN_TAG | 61);
+                    run -= 62;
+                }
+                i = end - 1;
+                continue;
+            }
+            if (pixel >>> 24 != 0xFF) {
+                this.previous = previous;
+                this.run = run;
+                return encode(pixels, i, to, buffer, p, null);
+            }
+            if (run > 0) {
+                buffer[p++] = (byte) (QOISpecification.QOI_OP_RUN_TAG | (run - 1));
+                run = 0;
+            }
+            int hash = hashOpaque(pixel);
+            if (index[hash] == pixel) {
+                buffer[p++] = (byte) (QOISpecification.QOI_OP_INDEX_TAG | hash);
+            } else {
+                index[hash] = pixel;
+                int chunk = chunk(pixel, previous);
+                INT_VIEW.set(buffer, p, chunk);
+                p += length(chunk);
+            }
+            previous = pixel;
+        }
+        this.previous = previous;
+        this.run = run;
+        return p;
+    }
+
+    /**
+     * QOI_OP_DIFF, QOI_OP_LUMA or QOI_OP_RGB chunk of a pixel that has the same alpha as the
+     * previous pixel, packed "Big Endian" in an integer (see QOIEncoderState::length)
+     * @apiNote The 3 differences are computed at once, one per byte of the integer. The choice
+     * between the 3 chunks is branch free : the 4 bytes are always written and only the
+     * right number is kept
+     * @param pixel (int) - Packed ARGB pixel to encode
+     * @param previous (int) - Previous pixel, with the same alpha
+     * @return (int) - The chunk, followed by unused bytes
+     */
+    private static int chunk(int pixel, int previous){
+        int diff = subtract(pixel, previous);
+        int small = add(diff, DIFF_BIAS);
+        int dg = (diff >> 8) & 0xFF;
+        int luma = add(subtract(diff, dg * 0x01_01_01), LUMA_BIAS);
+        int isDiff = ((small & 0x00_FC_FC_FC) - 1) >> 31;
+        int isLuma = ((((dg + 32) & 0xC0) | (luma & 0x00_F0_00_F0)) - 1) >> 31 & ~isDiff;
+        return (isDiff & (QOISpecification.QOI_OP_DIFF_TAG | (small >> 12 & 0x30) | (small >> 6 & 0x0C) | (small & 0x03)) << 24)
+                | (isLuma & ((QOISpecification.QOI_OP_LUMA_TAG & 0xFF | (dg + 32)) << 24 | ((luma >> 12 & 0xF0) | (luma & 0x0F)) << 16))
+                | (~(isDiff | isLuma) & ((QOISpecification.QOI_OP_RGB_TAG & 0xFF) << 24 | (pixel & 0x00_FF_FF_FF)));
+    }
+
+    /**
+     * Length of a chunk given by QOIEncoderState::chunk, read from the first 2 bits of its tag
+     * @param chunk (int) - QOI_OP_DIFF (01), QOI_OP_LUMA (10) or QOI_OP_RGB (11) chunk
+     * @return (int) - 1, 2 or 4
+     */
+    private static int length(int chunk){
+        return 1 << (chunk >>> 30) >> 1;
+    }
+
+    /**
+     * Same as QOISpecification::hash for an opaque pixel, the alpha channel is not read
+     * @param pixel (int) - Packed ARGB pixel, its alpha must be 0xFF
+     * @return (int) - hash of the pixel
+     */
+    static int hashOpaque(int pixel){
+        return ((pixel >> 16 & 0xFF) * 3 + (pixel >> 8 & 0xFF) * 5 + (pixel & 0xFF) * 7 + 0xFF * 11) & 63;
+    }
+
+    /**
+     * Subtract the 4 bytes of b from the 4 bytes of a, each byte wraps around on its own
+     * @apiNote SIMD within a register, see "Hacker's Delight" section 2-18
+     * @param a (int) - 4 packed bytes
+     * @param b (int) - 4 packed bytes
+     * @return (int) - 4 packed differences
+     */
+    static int subtract(int a, int b){
+        return ((a | 0x80_80_80_80) - (b & 0x7F_7F_7F_7F)) ^ ((a ^ ~b) & 0x80_80_80_80);
+    }
+
+    /**
+     * Add the 4 bytes of b to the 4 bytes of a, each byte wraps around on its own
+     * @apiNote SIMD within a register, see "Hacker's Delight" section 2-18
+     * @param a (int) - 4 packed bytes
+     * @param b (int) - 4 packed bytes
+     * @return (int) - 4 packed sums
+     */
+    static int add(int a, int b){
+        return ((a & 0x7F_7F_7F_7F) + (b & 0x7F_7F_7F_7F)) ^ ((a ^ b) & 0x80_80_80_80);
+    }
+
+    /**
+     * Encode the pending run (if any)
+     * @param buffer (byte[]) - Buffer where to write the encoding
+     * @param position (int) - Index in the buffer to start writing from
+     * @return (int) - Index in the buffer right after the last written byte
+     */
+    int flush(byte[] buffer, int position){
+        if (run > 0) {
+            buffer[position++] = (byte) (QOISpecification.QOI_OP_RUN_TAG | (run - 1));
+            run = 0;
+        }
+        return position;
+    }
+
+}
\ No newline at end of file
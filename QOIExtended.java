@@ -0,0 +1,344 @@
+package cs107;
+
+import java.util.Arrays;
+
+/**
+ * Experimental "Quite Ok Image" variant that also predicts pixels from the row above and
+ * uses a larger index. It is NOT compatible with the standard format : the file starts with
+ * its own magic number, so QOIDecoder and the other standard decoders reject it.
+ * @apiNote Layout of the file :
+ * <pre>
+ * header : "qoix" | width (4) | height (4) | channels (1) | color space (1) | index bits (1)
+ * chunks :
+ *   00iiiiii              INDEX      slot i of the index (same as QOI_OP_INDEX)
+ *   01rrggbb              DIFF       same as QOI_OP_DIFF (against the previous pixel)
+ *   10gggggg rrrrbbbb     LUMA       same as QOI_OP_LUMA (against the previous pixel)
+ *   110nnnnn              RUN        n + 1 copies of the previous pixel (1 to 32)
+ *   1110nnnn              UP         n + 1 pixels copied from the row above (1 to 16)
+ *   111100vv vvvvvvvv     UP_DELTA   pixel above plus dg (-8..7), dr - dg and db - dg (-4..3)
+ *   111101ii iiiiiiii     INDEX_LONG slot i of the large index (up to 1024 slots)
+ *   11111000 nnnnnnnn     RUN_LONG   n + 1 copies of the previous pixel (1 to 256)
+ *   11111001 nnnnnnnn     UP_LONG    n + 1 pixels copied from the row above (1 to 256)
+ *   11111110 r g b        RGB        same as QOI_OP_RGB
+ *   11111111 r g b a      RGBA       same as QOI_OP_RGBA
+ * end    : QOISpecification.QOI_EOF
+ * </pre>
+ * Next to the 64 slots index of the standard format, a large index of 2^bits slots (6 to 10 bits)
+ * keeps the colors that were pushed out of the small one, its hash is the one of the standard
+ * format taken modulo the number of slots. Both are updated by every chunk except the runs
+ * (RUN, UP and their long forms). Runs may cross the end of a row, UP chunks are not allowed
+ * in the first row.
+ * @version 1.3
+ * @since 1.3
+ */
+public final class QOIExtended {
+
+    /**
+     * DO NOT CHANGE THIS, MORE ON THAT IN WEEK 7.
+     */
+    private QOIExtended(){}
+
+    /**
+     * Magic number of the extended format
+     */
+    public static final byte[] QOIX_MAGIC = new byte[]{'q', 'o', 'i', 'x'};
+
+    /**
+     * Size of the header of the extended format
+     */
+    public static final int HEADER_SIZE = QOISpecification.HEADER_SIZE + 1;
+
+    /**
+     * Number of bits of the large index used by QOIExtended::qoiFile(Helper.Image) (256 slots)
+     */
+    public static final int DEFAULT_INDEX_BITS = 8;
+
+    private static final int MIN_INDEX_BITS = 6;
+    private static final int MAX_INDEX_BITS = 10;
+
+    private static final int RUN_TAG        = 0b110_00000;
+    private static final int UP_TAG         = 0b1110_0000;
+    private static final int UP_DELTA_TAG   = 0b111100_00;
+    private static final int INDEX_LONG_TAG = 0b111101_00;
+    private static final int RUN_LONG_TAG   = 0b11111000;
+    private static final int UP_LONG_TAG    = 0b11111001;
+
+    private static final int MAX_RUN      = 32;
+    private static final int MAX_UP       = 16;
+    private static final int MAX_LONG_RUN = 256;
+
+    // ==================================================================================
+    // ================================ ENCODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Creates the representation in memory of the extended "Quite Ok Image" file with a
+     * 256 slots large index
+     * @param image (Helper.Image) - Image to encode
+     * @return (byte[]) - Binary representation of the file
+     * @throws AssertionError if the image is null
+     */
+    public static byte[] qoiFile(Helper.Image image){
+        return qoiFile(image, DEFAULT_INDEX_BITS);
+    }
+
+    /**
+     * Creates the representation in memory of the extended "Quite Ok Image" file
+     * @param image (Helper.Image) - Image to encode
+     * @param indexBits (int) - Number of bits of the large index, between 6 (64 slots) and 10 (1024 slots)
+     * @return (byte[]) - Binary representation of the file
+     * @throws AssertionError if the image is null or the number of bits is out of range
+     */
+    public static byte[] qoiFile(Helper.Image image, int indexBits){
+        assert image != null;
+        assert MIN_INDEX_BITS <= indexBits && indexBits <= MAX_INDEX_BITS;
+        int[][] data = image.data();
+        int width = data[0].length;
+        int height = data.length;
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; ++y) {
+            System.arraycopy(data[y], 0, pixels, y * width, width);
+        }
+        byte[] buffer = new byte[HEADER_SIZE + pixels.length * QOIEncoderState.MAX_CHUNK_SIZE + QOISpecification.QOI_EOF.length];
+        QOIEncoder.qoiHeader(width, height, image.channels(), image.color_space(), buffer, 0);
+        System.arraycopy(QOIX_MAGIC, 0, buffer, 0, QOIX_MAGIC.length);
+        buffer[QOISpecification.HEADER_SIZE] = (byte) indexBits;
+        int position = encodeData(pixels, width, indexBits, buffer, HEADER_SIZE);
+        System.arraycopy(QOISpecification.QOI_EOF, 0, buffer, position, QOISpecification.QOI_EOF.length);
+        return Arrays.copyOf(buffer, position + QOISpecification.QOI_EOF.length);
+    }
+
+    /**
+     * Encode the pixels in the given buffer
+     * @param pixels (int[]) - Packed ARGB pixels, row after row
+     * @param width (int) - Width of the image
+     * @param indexBits (int) - Number of bits of the large index
+     * @param buffer (byte[]) - Buffer where to write the chunks
+     * @param position (int) - Index in the buffer to start writing from
+     * @return (int) - Index in the buffer right after the last written byte
+     */
+    private static int encodeData(int[] pixels, int width, int indexBits, byte[] buffer, int position){
+        int[] index = new int[64];
+        int[] large = new int[1 << indexBits];
+        int mask = large.length - 1;
+        int previous = QOIEncoderState.START_PIXEL;
+        int p = position;
+        int i = 0;
+        while (i < pixels.length) {
+            // 1. Runs : keep the longest of the two, the other scan is never longer than what is consumed
+            int same = 0;
+            while (i + same < pixels.length && pixels[i + same] == previous) {
+                same += 1;
+            }
+            int up = 0;
+            if (i >= width) {
+                while (i + up < pixels.length && pixels[i + up] == pixels[i + up - width]) {
+                    up += 1;
+                }
+            }
+            if (same > 0 || up > 0) {
+                if (same >= up) {
+                    p = run(buffer, p, same, RUN_TAG, MAX_RUN, RUN_LONG_TAG);
+                    i += same;
+                } else {
+                    p = run(buffer, p, up, UP_TAG, MAX_UP, UP_LONG_TAG);
+                    i += up;
+                    previous = pixels[i - 1];
+                }
+                continue;
+            }
+
+            // 2. One chunk for the pixel
+            int pixel = pixels[i];
+            int hash = QOISpecification.hash(pixel);
+            int slot = hash(pixel, mask);
+            int dr = (byte) ((pixel >> 16) - (previous >> 16));
+            int dg = (byte) ((pixel >> 8) - (previous >> 8));
+            int db = (byte) (pixel - previous);
+            boolean sameAlpha = (pixel ^ previous) >>> 24 == 0;
+            if (index[hash] == pixel) {
+                buffer[p++] = (byte) (QOISpecification.QOI_OP_INDEX_TAG | hash);
+            } else if (sameAlpha && -2 <= dr && dr <= 1 && -2 <= dg && dg <= 1 && -2 <= db && db <= 1) {
+                buffer[p++] = (byte) (QOISpecification.QOI_OP_DIFF_TAG | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+            } else if (large[slot] == pixel) {
+                buffer[p++] = (byte) (INDEX_LONG_TAG | slot >> 8);
+                buffer[p++] = (byte) slot;
+            } else if (sameAlpha && -32 <= dg && dg <= 31 && -8 <= dr - dg && dr - dg <= 7 && -8 <= db - dg && db - dg <= 7) {
+                buffer[p++] = (byte) (QOISpecification.QOI_OP_LUMA_TAG | (dg + 32));
+                buffer[p++] = (byte) ((dr - dg + 8) << 4 | (db - dg + 8));
+            } else if (!upDelta(pixels, i, width, buffer, p)) {
+                if (sameAlpha) {
+                    buffer[p++] = QOISpecification.QOI_OP_RGB_TAG;
+                } else {
+                    buffer[p++] = QOISpecification.QOI_OP_RGBA_TAG;
+                    buffer[p + 3] = (byte) (pixel >>> 24);
+                }
+                buffer[p] = (byte) (pixel >> 16);
+                buffer[p + 1] = (byte) (pixel >> 8);
+                buffer[p + 2] = (byte) pixel;
+                p += sameAlpha ? 3 : 4;
+            } else {
+                p += 2;
+            }
+            index[hash] = pixel;
+            large[slot] = pixel;
+            previous = pixel;
+            i += 1;
+        }
+        return p;
+    }
+
+    /**
+     * Write the chunks of a run of the given length
+     * @return (int) - Index in the buffer right after the last written byte
+     */
+    private static int run(byte[] buffer, int position, int length, int tag, int max, int longTag){
+        while (length > 0) {
+            if (length <= max) {
+                buffer[position++] = (byte) (tag | length - 1);
+                return position;
+            }
+            int count = Math.min(length, MAX_LONG_RUN);
+            buffer[position++] = (byte) longTag;
+            buffer[position++] = (byte) (count - 1);
+            length -= count;
+        }
+        return position;
+    }
+
+    /**
+     * Write the UP_DELTA chunk of the pixel at the given position if it exists
+     * @return (boolean) - true if the chunk was written (2 bytes), false otherwise
+     */
+    private static boolean upDelta(int[] pixels, int i, int width, byte[] buffer, int position){
+        if (i < width)
+            return false;
+        int pixel = pixels[i];
+        int above = pixels[i - width];
+        if ((pixel ^ above) >>> 24 != 0)
+            return false;
+        int dr = (byte) ((pixel >> 16) - (above >> 16));
+        int dg = (byte) ((pixel >> 8) - (above >> 8));
+        int db = (byte) (pixel - above);
+        if (dg < -8 || dg > 7 || dr - dg < -4 || dr - dg > 3 || db - dg < -4 || db - dg > 3)
+            return false;
+        int value = (dg + 8) << 6 | (dr - dg + 4) << 3 | (db - dg + 4);
+        buffer[position] = (byte) (UP_DELTA_TAG | value >> 8);
+        buffer[position + 1] = (byte) value;
+        return true;
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode a file of the extended "Quite Ok Image" format
+     * @param content (byte[]) - Content of the file to decode
+     * @return (Helper.Image) - Decoded image
+     * @throws AssertionError if content is null or is not a valid extended "Quite Ok Image" file
+     */
+    public static Helper.Image decodeQoiFile(byte[] content){
+        assert content != null;
+        assert content.length >= HEADER_SIZE + QOISpecification.QOI_EOF.length;
+        for (int i = 0; i < QOIX_MAGIC.length; ++i) {
+            assert content[i] == QOIX_MAGIC[i];
+        }
+        int width = QOIDecoder.toInt(content, 4);
+        int height = QOIDecoder.toInt(content, 8);
+        byte channels = content[12];
+        byte colorSpace = content[13];
+        int indexBits = content[QOISpecification.HEADER_SIZE];
+        assert width > 0 && height > 0;
+        assert MIN_INDEX_BITS <= indexBits && indexBits <= MAX_INDEX_BITS;
+
+        int[][] data = new int[height][width];
+        int[] index = new int[64];
+        int[] large = new int[1 << indexBits];
+        int mask = large.length - 1;
+        int previous = QOIEncoderState.START_PIXEL;
+        int pending = 0;
+        boolean fromAbove = false;
+        int p = HEADER_SIZE;
+        for (int y = 0; y < height; ++y) {
+            int[] row = data[y];
+            int[] above = y > 0 ? data[y - 1] : null;
+            int x = 0;
+            while (x < width) {
+                if (pending > 0) {
+                    int count = Math.min(pending, width - x);
+                    if (fromAbove) {
+                        assert above != null;
+                        System.arraycopy(above, x, row, x, count);
+                        previous = row[x + count - 1];
+                    } else {
+                        Arrays.fill(row, x, x + count, previous);
+                    }
+                    x += count;
+                    pending -= count;
+                    continue;
+                }
+                int tag = content[p++] & 0xFF;
+                if (tag < RUN_TAG) {
+                    switch ((byte) (tag & 0b11_00_00_00)) {
+                        case QOISpecification.QOI_OP_INDEX_TAG -> previous = index[tag];
+                        case QOISpecification.QOI_OP_DIFF_TAG -> previous = QOIDecoderState.add(previous,
+                                (tag >> 4 & 3) - 2, (tag >> 2 & 3) - 2, (tag & 3) - 2);
+                        default -> {
+                            int dg = (tag & 0x3F) - 32;
+                            int second = content[p++] & 0xFF;
+                            previous = QOIDecoderState.add(previous, dg + (second >> 4) - 8, dg, dg + (second & 0x0F) - 8);
+                        }
+                    }
+                } else if (tag < UP_TAG) {
+                    pending = (tag & 0x1F) + 1;
+                    fromAbove = false;
+                    continue;
+                } else if (tag < UP_DELTA_TAG) {
+                    pending = (tag & 0x0F) + 1;
+                    fromAbove = true;
+                    continue;
+                } else if (tag < INDEX_LONG_TAG) {
+                    assert above != null;
+                    int value = (tag & 3) << 8 | (content[p++] & 0xFF);
+                    int dg = (value >> 6) - 8;
+                    previous = QOIDecoderState.add(above[x], dg + (value >> 3 & 7) - 4, dg, dg + (value & 7) - 4);
+                } else if (tag < RUN_LONG_TAG) {
+                    previous = large[((tag & 3) << 8 | (content[p++] & 0xFF)) & mask];
+                } else if (tag == RUN_LONG_TAG || tag == UP_LONG_TAG) {
+                    pending = (content[p++] & 0xFF) + 1;
+                    fromAbove = tag == UP_LONG_TAG;
+                    continue;
+                } else if (tag == (QOISpecification.QOI_OP_RGB_TAG & 0xFF)) {
+                    previous = (previous & 0xFF_00_00_00) | (content[p] & 0xFF) << 16 | (content[p + 1] & 0xFF) << 8 | (content[p + 2] & 0xFF);
+                    p += 3;
+                } else {
+                    assert tag == (QOISpecification.QOI_OP_RGBA_TAG & 0xFF);
+                    previous = (content[p + 3] & 0xFF) << 24 | (content[p] & 0xFF) << 16 | (content[p + 1] & 0xFF) << 8 | (content[p + 2] & 0xFF);
+                    p += 4;
+                }
+                index[QOISpecification.hash(previous)] = previous;
+                large[hash(previous, mask)] = previous;
+                row[x++] = previous;
+            }
+        }
+        assert pending == 0;
+        assert p == content.length - QOISpecification.QOI_EOF.length;
+        for (int i = 0; i < QOISpecification.QOI_EOF.length; ++i) {
+            assert content[p + i] == QOISpecification.QOI_EOF[i];
+        }
+        return new Helper.Image(data, channels, colorSpace);
+    }
+
+    // ==================================================================================
+    // ================================= HELPER METHODS =================================
+    // ==================================================================================
+
+    /**
+     * Hash of the standard format taken modulo the number of slots of the index
+     */
+    private static int hash(int pixel, int mask){
+        return ((pixel >> 16 & 0xFF) * 3 + (pixel >> 8 & 0xFF) * 5 + (pixel & 0xFF) * 7 + (pixel >>> 24) * 11) & mask;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,250 @@
+package cs107;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+
+/**
+ * Multi-core "Quite Ok Image" Encoder. The image is split in horizontal strips that are
+ * encoded at the same time, the outputs are then stitched together.
+ * @apiNote The state of the encoder at the beginning of a strip (previous pixel, pending run
+ * and index) only depends on the pixels before it, it is rebuilt from a summary of each strip
+ * before the encoding starts. The output is byte-for-byte identical to QOIEncoder::qoiFile.
+ * @version 1.3
+ * @since 1.3
+ */
+public final class QOIParallelEncoder {
+
+    /**
+     * DO NOT CHANGE THIS, MORE ON THAT IN WEEK 7.
+     */
+    private QOIParallelEncoder(){}
+
+    /**
+     * Minimum number of pixels in a strip, smaller strips are not worth a task
+     */
+    private static final int MIN_STRIP_SIZE = 1 << 16;
+
+    // ==================================================================================
+    // ============================== GLOBAL ENCODING METHODS  ==========================
+    // ==================================================================================
+
+    /**
+     * Encode the given image using the "Quite Ok Image" Protocol on the common pool
+     * @param image (int[][]) - ARGB pixels of the image (same format as Helper.Image::data)
+     * @return (byte[]) - "Quite Ok Image" representation of the image
+     * @throws AssertionError if the image is null
+     */
+    public static byte[] encodeData(int[][] image){
+        assert image != null;
+        var pool = ForkJoinPool.commonPool();
+        return encodeData(image, pool, strips(image, pool));
+    }
+
+    /**
+     * Encode the given image using the "Quite Ok Image" Protocol
+     * @param image (int[][]) - ARGB pixels of the image (same format as Helper.Image::data)
+     * @param pool (ForkJoinPool) - Pool running the strips
+     * @param strips (int) - Number of strips (capped to the number of rows)
+     * @return (byte[]) - "Quite Ok Image" representation of the image
+     * @throws AssertionError if the image or the pool is null or if strips is not positive
+     */
+    public static byte[] encodeData(int[][] image, ForkJoinPool pool, int strips){
+        assert image != null && pool != null;
+        assert strips > 0;
+        return encode(image, pool, strips, new byte[0], new byte[0]);
+    }
+
+    /**
+     * Creates the representation in memory of the "Quite Ok Image" file using all the cores
+     * @param image (Helper.Image) - Image to encode
+     * @return (byte[]) - Binary representation of the "Quite Ok File" of the image
+     * @throws AssertionError if the image is null
+     */
+    public static byte[] qoiFile(Helper.Image image){
+        assert image != null;
+        var pool = ForkJoinPool.commonPool();
+        return encode(image.data(), pool, strips(image.data(), pool), QOIEncoder.qoiHeader(image), QOISpecification.QOI_EOF);
+    }
+
+    /**
+     * Encode the strips and copy them once, between the prefix and the suffix, in the result
+     * @return (byte[]) - prefix, chunks of the image and suffix
+     */
+    private static byte[] encode(int[][] image, ForkJoinPool pool, int strips, byte[] prefix, byte[] suffix){
+        strips = Math.min(strips, image.length);
+        int width = image[0].length;
+        int[] bounds = new int[strips + 1];
+        for (int s = 0; s <= strips; ++s) {
+            bounds[s] = (int) ((long) image.length * s / strips);
+        }
+        QOIEncoderState[] states = strips == 1 ? new QOIEncoderState[]{new QOIEncoderState()} : entryStates(image, pool, bounds);
+
+        // Encode every strip in its own buffer
+        byte[][] outputs = new byte[strips][];
+        int[] lengths = new int[strips];
+        int count = strips;
+        forEach(pool, strips, s -> {
+            QOIEncoderState state = states[s];
+            // One more byte than QOIEncoderState::encode needs : a run pending at the beginning
+            // of the strip (carried over from the previous one) is flushed before its chunks
+            byte[] buffer = new byte[(bounds[s + 1] - bounds[s]) * width * QOIEncoderState.MAX_CHUNK_SIZE + 2];
+            int position = 0;
+            for (int y = bounds[s]; y < bounds[s + 1]; ++y) {
+                position = state.encode(image[y], 0, width, buffer, position);
+            }
+            if (s == count - 1) {
+                position = state.flush(buffer, position);
+            }
+            outputs[s] = buffer;
+            lengths[s] = position;
+        });
+
+        // Stitch the outputs
+        int total = prefix.length + suffix.length;
+        for (int length : lengths) {
+            total += length;
+        }
+        byte[] result = new byte[total];
+        System.arraycopy(prefix, 0, result, 0, prefix.length);
+        int position = prefix.length;
+        for (int s = 0; s < strips; ++s) {
+            System.arraycopy(outputs[s], 0, result, position, lengths[s]);
+            position += lengths[s];
+        }
+        System.arraycopy(suffix, 0, result, position, suffix.length);
+        return result;
+    }
+
+    /**
+     * Rebuild the state of the encoder at the beginning of every strip
+     * @return (QOIEncoderState[]) - State of the encoder before the first pixel of each strip
+     */
+    private static QOIEncoderState[] entryStates(int[][] image, ForkJoinPool pool, int[] bounds){
+        int strips = bounds.length - 1;
+        int width = image[0].length;
+
+        // 1. Summarize every strip
+        int[] last = new int[strips];
+        int[] trailing = new int[strips];
+        int[] leadingStart = new int[strips];
+        int[][] slotPixel = new int[strips][64];
+        int[][] slotPosition = new int[strips][64];
+        forEach(pool, strips, s -> {
+            int first = bounds[s];
+            int end = bounds[s + 1];
+            int[] lastRow = image[end - 1];
+            int value = lastRow[width - 1];
+            last[s] = value;
+            trailing[s] = trailingRun(image, first, end, value);
+            leadingStart[s] = leadingRun(image, first, end, QOIEncoderState.START_PIXEL);
+            int[] pixels = slotPixel[s];
+            int[] positions = slotPosition[s];
+            Arrays.fill(positions, -1);
+            int missing = 64;
+            for (int y = end - 1; y >= first && missing > 0; --y) {
+                int[] row = image[y];
+                for (int x = width - 1; x >= 0 && missing > 0; --x) {
+                    int hash = QOISpecification.hash(row[x]);
+                    if (positions[hash] < 0) {
+                        positions[hash] = y * width + x;
+                        pixels[hash] = row[x];
+                        missing -= 1;
+                    }
+                }
+            }
+        });
+
+        // 2. Rebuild the state of the encoder at the beginning of every strip
+        int startRun = 0;
+        for (int s = 0; s < strips; ++s) {
+            int size = (bounds[s + 1] - bounds[s]) * width;
+            if (leadingStart[s] == size) {
+                startRun += size;
+            } else {
+                startRun += leadingStart[s];
+                break;
+            }
+        }
+        QOIEncoderState[] states = new QOIEncoderState[strips];
+        states[0] = new QOIEncoderState();
+        int streak = 0;
+        for (int s = 1; s < strips; ++s) {
+            QOIEncoderState state = new QOIEncoderState();
+            System.arraycopy(states[s - 1].index, 0, state.index, 0, 64);
+            for (int h = 0; h < 64; ++h) {
+                if (slotPosition[s - 1][h] >= startRun) {
+                    state.index[h] = slotPixel[s - 1][h];
+                }
+            }
+            int size = (bounds[s] - bounds[s - 1]) * width;
+            boolean continued = trailing[s - 1] == size && s > 1 && last[s - 2] == last[s - 1];
+            streak = trailing[s - 1] + (continued ? streak : 0);
+            state.previous = last[s - 1];
+            boolean fromStart = streak == bounds[s] * width && last[s - 1] == QOIEncoderState.START_PIXEL;
+            state.run = (fromStart ? streak : streak - 1) % 62;
+            states[s] = state;
+        }
+        return states;
+    }
+
+    // ==================================================================================
+    // ================================= HELPER METHODS =================================
+    // ==================================================================================
+
+    /**
+     * Default number of strips : a few per core, none smaller than MIN_STRIP_SIZE pixels
+     */
+    private static int strips(int[][] image, ForkJoinPool pool){
+        long pixels = (long) image.length * image[0].length;
+        return (int) Math.min(pool.getParallelism() * 4L, Math.max(1, pixels / MIN_STRIP_SIZE));
+    }
+
+    /**
+     * Count the pixels at the end of the rows [first, end) that are equal to value
+     */
+    private static int trailingRun(int[][] image, int first, int end, int value){
+        int count = 0;
+        for (int y = end - 1; y >= first; --y) {
+            int[] row = image[y];
+            for (int x = row.length - 1; x >= 0; --x) {
+                if (row[x] != value)
+                    return count;
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Count the pixels at the beginning of the rows [first, end) that are equal to value
+     */
+    private static int leadingRun(int[][] image, int first, int end, int value){
+        int count = 0;
+        for (int y = first; y < end; ++y) {
+            for (int pixel : image[y]) {
+                if (pixel != value)
+                    return count;
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Run the action for every strip on the given pool and wait for all of them
+     */
+    private static void forEach(ForkJoinPool pool, int strips, IntConsumer action){
+        var tasks = new ArrayList<ForkJoinTask<?>>(strips);
+        for (int s = 0; s < strips; ++s) {
+            int strip = s;
+            tasks.add(pool.submit(() -> action.accept(strip)));
+        }
+        for (var task : tasks) {
+            task.join();
+        }
+    }
+
+}
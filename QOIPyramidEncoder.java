@@ -0,0 +1,213 @@
+package cs107;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Encoder of a multi-resolution pyramid (mipmap) in a single pass over the image. Level 0
+ * is the image itself, every next level is half the size of the previous one (rounded up).
+ * The rows of a level are box-filtered (2x2 pixels) into the next level as soon as they are
+ * encoded, each level has its own QOIStreamEncoder.
+ * @apiNote Only one row of sums and one row of pixels are kept for every level, the image
+ * itself is never required as a whole. Each channel is averaged on its own (alpha is not
+ * premultiplied). On an odd width or height, the last box of a row or a column only covers
+ * the remaining pixels.
+ * @version 1.3
+ * @since 1.3
+ */
+public final class QOIPyramidEncoder implements Closeable {
+
+    private final QOIStreamEncoder encoder;
+    private final Level[] levels;
+    private boolean closed;
+
+    /**
+     * Create a new pyramid encoder writing level i to outputs[i]
+     * @param outputs (OutputStream[]) - Streams where to write the "Quite Ok Image" file of each level
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @throws AssertionError if the outputs are null or empty or if the header is corrupted
+     */
+    public QOIPyramidEncoder(OutputStream[] outputs, int width, int height, byte channels, byte colorSpace){
+        this(channels(outputs), width, height, channels, colorSpace);
+    }
+
+    /**
+     * Create a new pyramid encoder writing level i to outputs[i]
+     * @param outputs (WritableByteChannel[]) - Channels where to write the "Quite Ok Image" file of each level
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @throws AssertionError if the outputs are null or empty or if the header is corrupted
+     */
+    public QOIPyramidEncoder(WritableByteChannel[] outputs, int width, int height, byte channels, byte colorSpace){
+        assert outputs != null && outputs.length > 0;
+        assert width > 0 && height > 0;
+        encoder = new QOIStreamEncoder(outputs[0], width, height, channels, colorSpace);
+        levels = new Level[outputs.length - 1];
+        for (int l = 1; l < outputs.length; ++l) {
+            levels[l - 1] = new Level(new QOIStreamEncoder(outputs[l], size(width, l), size(height, l), channels, colorSpace),
+                    size(width, l), size(width, l - 1), size(height, l - 1));
+        }
+    }
+
+    /**
+     * Size of a level of the pyramid
+     * @param size (int) - Width or height of the image
+     * @param level (int) - Level of the pyramid (0 for the image itself)
+     * @return (int) - Width or height of the level
+     * @throws AssertionError if the size is not positive
+     */
+    public static int size(int size, int level){
+        assert size > 0;
+        for (int l = 0; l < level; ++l) {
+            size = (size + 1) / 2;
+        }
+        return size;
+    }
+
+    /**
+     * Creates the representation in memory of the "Quite Ok Image" file of every level
+     * @param image (Helper.Image) - Image to encode
+     * @param levels (int) - Number of levels, the image included
+     * @return (byte[][]) - Binary representation of the "Quite Ok File" of each level
+     * @throws AssertionError if the image is null or the number of levels is not positive
+     */
+    public static byte[][] qoiFiles(Helper.Image image, int levels){
+        assert image != null;
+        assert levels > 0;
+        int[][] data = image.data();
+        ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[levels];
+        for (int l = 0; l < levels; ++l) {
+            outputs[l] = new ByteArrayOutputStream();
+        }
+        try (var encoder = new QOIPyramidEncoder(outputs, data[0].length, data.length, image.channels(), image.color_space())) {
+            for (int[] row : data) {
+                encoder.writeRow(row);
+            }
+        }
+        byte[][] files = new byte[levels][];
+        for (int l = 0; l < levels; ++l) {
+            files[l] = outputs[l].toByteArray();
+        }
+        return files;
+    }
+
+    // ==================================================================================
+    // ================================ ENCODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Encode the next row of the image in every level
+     * @param row (int[]) - ARGB pixels of the row (same format as a row of Helper.Image::data)
+     * @throws AssertionError if the encoder is closed, if the row is null, if its length
+     * differs from the width or if all the rows were already written
+     */
+    public void writeRow(int[] row){
+        assert !closed;
+        encoder.writeRow(row);
+        for (int l = 0; l < levels.length && row != null; ++l) {
+            row = levels[l].add(row);
+        }
+    }
+
+    /**
+     * Close the encoder of every level
+     * @throws AssertionError if some rows were not written
+     */
+    @Override
+    public void close(){
+        if (closed)
+            return;
+        closed = true;
+        encoder.close();
+        for (Level level : levels) {
+            level.encoder.close();
+        }
+    }
+
+    // ==================================================================================
+    // ================================= HELPER METHODS =================================
+    // ==================================================================================
+
+    private static WritableByteChannel[] channels(OutputStream[] outputs){
+        assert outputs != null;
+        WritableByteChannel[] channels = new WritableByteChannel[outputs.length];
+        for (int i = 0; i < outputs.length; ++i) {
+            channels[i] = Channels.newChannel(outputs[i]);
+        }
+        return channels;
+    }
+
+    /**
+     * Level of the pyramid : the encoder and the sums of the pending row of boxes
+     * @apiNote The sums are kept two channels per integer, 16 bits each (red and blue in
+     * QOIPyramidEncoder.Level::low, alpha and green in QOIPyramidEncoder.Level::high) : a box
+     * covers at most 4 pixels, so a sum never exceeds 4 * 255. A box covers 1, 2 or 4 pixels,
+     * the average is a shift.
+     */
+    private static final class Level {
+
+        private static final int LANES = 0x00_FF_00_FF;
+
+        private final QOIStreamEncoder encoder;
+        private final int sourceWidth;
+        private final int sourceHeight;
+        private final int[] low;
+        private final int[] high;
+        private final int[] row;
+        private int pending;
+        private int received;
+
+        private Level(QOIStreamEncoder encoder, int width, int sourceWidth, int sourceHeight){
+            this.encoder = encoder;
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            this.low = new int[width];
+            this.high = new int[width];
+            this.row = new int[width];
+        }
+
+        /**
+         * Add a row of the previous level to the pending boxes, encode the boxes once complete
+         * @param source (int[]) - ARGB pixels of the row of the previous level
+         * @return (int[]) - Encoded row of this level, null if the boxes are not complete yet
+         */
+        private int[] add(int[] source){
+            int pairs = sourceWidth >> 1;
+            for (int i = 0; i < pairs; ++i) {
+                int left = source[2 * i];
+                int right = source[2 * i + 1];
+                low[i] += (left & LANES) + (right & LANES);
+                high[i] += (left >>> 8 & LANES) + (right >>> 8 & LANES);
+            }
+            if ((sourceWidth & 1) != 0) {
+                low[pairs] += source[sourceWidth - 1] & LANES;
+                high[pairs] += source[sourceWidth - 1] >>> 8 & LANES;
+            }
+            pending += 1;
+            received += 1;
+            if (pending < 2 && received < sourceHeight)
+                return null;
+            int rows = pending - 1;
+            for (int x = 0; x < row.length; ++x) {
+                int shift = rows + (2 * x + 1 < sourceWidth ? 1 : 0);
+                int half = (1 << shift >> 1) * 0x00_01_00_01;
+                row[x] = ((high[x] + half) >> shift & LANES) << 8 | ((low[x] + half) >> shift & LANES);
+                low[x] = 0;
+                high[x] = 0;
+            }
+            pending = 0;
+            encoder.writeRow(row);
+            return row;
+        }
+
+    }
+
+}
\ No newline at end of file
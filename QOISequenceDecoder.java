@@ -0,0 +1,156 @@
+package cs107;
+
+/**
+ * Decoder of a sequence written by QOISequenceEncoder. The frames can be read one after
+ * the other or in any order : seeking goes back to the closest keyframe before the wanted
+ * frame (or continues from the current frame when it is closer) and applies the deltas from there.
+ * @apiNote A decoder is NOT thread-safe. The pixels of the returned images belong to the
+ * decoder, they are overwritten by the next call. Copy them to keep them longer.
+ * @version 1.3
+ * @since 1.3
+ */
+public final class QOISequenceDecoder {
+
+    private final byte[] content;
+    private final int width;
+    private final int height;
+    private final byte channels;
+    private final byte colorSpace;
+    private final int frames;
+    private final int[] keyframes;
+    private final int[] offsets;
+    private final int bitmap;
+    private final QOIDecoderState state = new QOIDecoderState();
+    private final int[][] data;
+    private final int[] residual;
+    private int current = -1;
+    private int position;
+
+    /**
+     * Open the given sequence
+     * @param content (byte[]) - Content of the file written by QOISequenceEncoder
+     * @throws AssertionError if content is null or is not a valid sequence
+     */
+    public QOISequenceDecoder(byte[] content){
+        assert content != null;
+        assert content.length >= QOISpecification.HEADER_SIZE + 4 + 4 + 8 + QOISpecification.QOI_EOF.length;
+        for (int i = 0; i < QOISequenceEncoder.QOIS_MAGIC.length; ++i) {
+            assert content[i] == QOISequenceEncoder.QOIS_MAGIC[i];
+        }
+        int end = content.length - QOISpecification.QOI_EOF.length;
+        for (int i = 0; i < QOISpecification.QOI_EOF.length; ++i) {
+            assert content[end + i] == QOISpecification.QOI_EOF[i];
+        }
+        this.content = content;
+        this.width = QOIDecoder.toInt(content, 4);
+        this.height = QOIDecoder.toInt(content, 8);
+        this.channels = content[12];
+        this.colorSpace = content[13];
+        assert width > 0 && height > 0;
+        int index = Math.toIntExact(toLong(content, end - 8));
+        this.frames = QOIDecoder.toInt(content, index);
+        int count = QOIDecoder.toInt(content, index + 4);
+        assert frames >= 0 && (count > 0 || frames == 0);
+        this.keyframes = new int[count];
+        this.offsets = new int[count];
+        for (int k = 0; k < count; ++k) {
+            keyframes[k] = QOIDecoder.toInt(content, index + 8 + 12 * k);
+            offsets[k] = Math.toIntExact(toLong(content, index + 12 + 12 * k));
+        }
+        this.bitmap = (height + 7) / 8;
+        this.data = new int[height][width];
+        this.residual = new int[width];
+    }
+
+    /**
+     * Number of frames of the sequence
+     * @return (int) - Number of frames
+     */
+    public int frames(){
+        return frames;
+    }
+
+    /**
+     * Number of the frame returned by the last call
+     * @return (int) - Number of the current frame, -1 before the first call
+     */
+    public int current(){
+        return current;
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode the frame following the current one
+     * @return (Helper.Image) - Next frame
+     * @throws AssertionError if the current frame is the last one
+     */
+    public Helper.Image next(){
+        return frame(current + 1);
+    }
+
+    /**
+     * Decode the given frame
+     * @param number (int) - Number of the frame, from 0
+     * @return (Helper.Image) - Decoded frame
+     * @throws AssertionError if the number is out of range or the sequence is corrupted
+     */
+    public Helper.Image frame(int number){
+        assert 0 <= number && number < frames;
+        int k = keyframes.length - 1;
+        while (keyframes[k] > number) {
+            k -= 1;
+        }
+        if (number < current || keyframes[k] > current) {
+            current = keyframes[k] - 1;
+            position = offsets[k];
+        }
+        while (current < number) {
+            decodeFrame();
+        }
+        return new Helper.Image(data, channels, colorSpace);
+    }
+
+    /**
+     * Decode the frame at the current position over the current frame
+     */
+    private void decodeFrame(){
+        byte type = content[position];
+        int length = QOIDecoder.toInt(content, position + 1);
+        int end = position + 5 + length;
+        int p = position + 5;
+        state.reset();
+        if (type == QOISequenceEncoder.KEYFRAME) {
+            for (int[] row : data) {
+                p = state.decode(content, p, row, 0, width);
+            }
+        } else {
+            assert type == QOISequenceEncoder.DELTA;
+            int chunks = p + bitmap;
+            for (int y = 0; y < height; ++y) {
+                if ((content[p + y / 8] & 0x80 >>> (y & 7)) == 0)
+                    continue;
+                chunks = state.decode(content, chunks, residual, 0, width);
+                int[] row = data[y];
+                for (int x = 0; x < width; ++x) {
+                    row[x] = QOIEncoderState.add(row[x], residual[x]);
+                }
+            }
+            p = chunks;
+        }
+        assert p == end && state.run == 0;
+        position = end;
+        current += 1;
+    }
+
+    // ==================================================================================
+    // ================================= HELPER METHODS =================================
+    // ==================================================================================
+
+    private static long toLong(byte[] input, int position){
+        return (long) QOIDecoder.toInt(input, position) << 32 | QOIDecoder.toInt(input, position + 4) & 0xFFFF_FFFFL;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,219 @@
+package cs107;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Encoder of a sequence of images of the same size (a screen recording for instance).
+ * Most frames are encoded against the previous one : the rows that did not change are
+ * skipped and the others are encoded as the difference with the previous frame, so the
+ * pixels that did not change become long QOI_OP_RUN chunks. A keyframe, encoded as a plain
+ * "Quite Ok Image", is written at a regular interval to allow seeking.
+ * @apiNote Layout of the file :
+ * <pre>
+ * header : "qois" | width (4) | height (4) | channels (1) | color space (1)
+ * frames : type (1) | length of the payload (4) | payload
+ *   KEYFRAME : chunks of the frame, the same as QOIEncoder::encodeData
+ *   DELTA    : bitmap of the changed rows (1 bit per row, first row in the highest bit)
+ *              | chunks of the changed rows minus the same rows of the previous frame
+ *              (each channel wraps around on its own)
+ * index  : number of frames (4) | number of keyframes (4) | for each keyframe :
+ *          number of the frame (4) | offset of the frame in the file (8)
+ * end    : offset of the index (8) | QOISpecification.QOI_EOF
+ * </pre>
+ * The state of the chunks is reset at the beginning of every frame.
+ * @version 1.3
+ * @since 1.3
+ */
+public final class QOISequenceEncoder implements Closeable {
+
+    /**
+     * Magic number of a sequence
+     */
+    public static final byte[] QOIS_MAGIC = new byte[]{'q', 'o', 'i', 's'};
+
+    /**
+     * Type of a frame encoded on its own
+     */
+    public static final byte KEYFRAME = 0;
+
+    /**
+     * Type of a frame encoded against the previous one
+     */
+    public static final byte DELTA = 1;
+
+    /**
+     * Number of frames between two keyframes used when none is given
+     */
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 120;
+
+    private final WritableByteChannel output;
+    private final int width;
+    private final int height;
+    private final int interval;
+    private final QOIEncoderState state = new QOIEncoderState();
+    private final int[][] previous;
+    private final int[] residual;
+    private final byte[] buffer;
+    private final int bitmap;
+    private int[] keyframes = new int[16];
+    private long[] offsets = new long[16];
+    private int keyframeCount;
+    private int frames;
+    private long written;
+    private boolean closed;
+
+    /**
+     * Create a new sequence encoder writing to the given stream with a keyframe every
+     * QOISequenceEncoder.DEFAULT_KEYFRAME_INTERVAL frames
+     * @param output (OutputStream) - Stream where to write the sequence
+     * @param width (int) - Width of the frames
+     * @param height (int) - Height of the frames
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @throws AssertionError if the output is null or the header is corrupted
+     */
+    public QOISequenceEncoder(OutputStream output, int width, int height, byte channels, byte colorSpace){
+        this(Channels.newChannel(output), width, height, channels, colorSpace, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * Create a new sequence encoder writing to the given channel
+     * @param output (WritableByteChannel) - Channel where to write the sequence
+     * @param width (int) - Width of the frames
+     * @param height (int) - Height of the frames
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @param interval (int) - Number of frames between two keyframes
+     * @throws AssertionError if the output is null, the header is corrupted or the interval is not positive
+     */
+    public QOISequenceEncoder(WritableByteChannel output, int width, int height, byte channels, byte colorSpace, int interval){
+        assert output != null;
+        assert interval > 0;
+        byte[] header = QOIEncoder.qoiHeader(width, height, channels, colorSpace);
+        System.arraycopy(QOIS_MAGIC, 0, header, 0, QOIS_MAGIC.length);
+        this.output = output;
+        this.width = width;
+        this.height = height;
+        this.interval = interval;
+        this.previous = new int[height][width];
+        this.residual = new int[width];
+        this.bitmap = (height + 7) / 8;
+        this.buffer = new byte[1 + 4 + bitmap + width * height * QOIEncoderState.MAX_CHUNK_SIZE + 1];
+        write(header, header.length);
+    }
+
+    // ==================================================================================
+    // ================================ ENCODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Encode the next frame and write it
+     * @apiNote The frame is copied where needed, the caller can reuse its array
+     * @param frame (int[][]) - ARGB pixels of the frame (same format as Helper.Image::data)
+     * @return (int) - Number of bytes written for the frame
+     * @throws AssertionError if the encoder is closed or the frame is null or does not have the right size
+     */
+    public int writeFrame(int[][] frame){
+        assert !closed;
+        assert frame != null && frame.length == height;
+        int length = frames % interval == 0 ? keyframe(frame) : delta(frame);
+        System.arraycopy(ArrayUtils.fromInt(length - 5), 0, buffer, 1, 4);
+        frames += 1;
+        write(buffer, length);
+        return length;
+    }
+
+    /**
+     * Encode a keyframe in the buffer and remember the frame
+     * @return (int) - Length of the frame in the buffer
+     */
+    private int keyframe(int[][] frame){
+        if (keyframeCount == keyframes.length) {
+            keyframes = Arrays.copyOf(keyframes, 2 * keyframeCount);
+            offsets = Arrays.copyOf(offsets, 2 * keyframeCount);
+        }
+        keyframes[keyframeCount] = frames;
+        offsets[keyframeCount] = written;
+        keyframeCount += 1;
+        buffer[0] = KEYFRAME;
+        state.reset();
+        int position = 5;
+        for (int y = 0; y < height; ++y) {
+            assert frame[y] != null && frame[y].length == width;
+            position = state.encode(frame[y], 0, width, buffer, position);
+            System.arraycopy(frame[y], 0, previous[y], 0, width);
+        }
+        return state.flush(buffer, position);
+    }
+
+    /**
+     * Encode the difference between the frame and the previous one in the buffer
+     * and remember the frame
+     * @return (int) - Length of the frame in the buffer
+     */
+    private int delta(int[][] frame){
+        buffer[0] = DELTA;
+        Arrays.fill(buffer, 5, 5 + bitmap, (byte) 0);
+        state.reset();
+        int position = 5 + bitmap;
+        for (int y = 0; y < height; ++y) {
+            int[] row = frame[y];
+            int[] last = previous[y];
+            assert row != null && row.length == width;
+            if (Arrays.equals(row, last))
+                continue;
+            buffer[5 + y / 8] |= (byte) (0x80 >>> (y & 7));
+            for (int x = 0; x < width; ++x) {
+                residual[x] = QOIEncoderState.subtract(row[x], last[x]);
+            }
+            position = state.encode(residual, 0, width, buffer, position);
+            System.arraycopy(row, 0, last, 0, width);
+        }
+        return state.flush(buffer, position);
+    }
+
+    /**
+     * Write the index of the keyframes, QOISpecification.QOI_EOF and close the underlying output
+     */
+    @Override
+    public void close(){
+        if (closed)
+            return;
+        closed = true;
+        long index = written;
+        ByteBuffer end = ByteBuffer.allocate(4 + 4 + keyframeCount * (4 + 8) + 8 + QOISpecification.QOI_EOF.length);
+        end.putInt(frames).putInt(keyframeCount);
+        for (int k = 0; k < keyframeCount; ++k) {
+            end.putInt(keyframes[k]).putLong(offsets[k]);
+        }
+        end.putLong(index).put(QOISpecification.QOI_EOF);
+        write(end.array(), end.capacity());
+        try {
+            output.close();
+        } catch (IOException e){
+            Helper.fail("An error occurred while trying to close the output");
+        }
+    }
+
+    // ==================================================================================
+    // ================================= OUTPUT METHODS =================================
+    // ==================================================================================
+
+    private void write(byte[] content, int length){
+        try {
+            var bytes = ByteBuffer.wrap(content, 0, length);
+            while (bytes.hasRemaining()) {
+                written += output.write(bytes);
+            }
+        } catch (IOException e){
+            Helper.fail("An error occurred while trying to write the frame");
+        }
+    }
+
+}
\ No newline at end of file
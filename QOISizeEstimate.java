@@ -0,0 +1,65 @@
+package cs107;
+
+/**
+ * Size of the "Quite Ok Image" encoding of an image, given as the number of chunks of each kind.
+ * @apiNote When only some rows were encoded (see QOIEncoder::estimateSize), the numbers are
+ * extrapolated to the whole image and error gives the uncertainty on the size
+ * @param rgb (long) - Number of QOI_OP_RGB chunks
+ * @param rgba (long) - Number of QOI_OP_RGBA chunks
+ * @param index (long) - Number of QOI_OP_INDEX chunks
+ * @param diff (long) - Number of QOI_OP_DIFF chunks
+ * @param luma (long) - Number of QOI_OP_LUMA chunks
+ * @param run (long) - Number of QOI_OP_RUN chunks
+ * @param error (double) - Half width of the 95% confidence interval of the size, in bytes (0 when exact)
+ * @version 1.3
+ * @since 1.3
+ */
+public record QOISizeEstimate(long rgb, long rgba, long index, long diff, long luma, long run, double error) {
+
+    // ==================================================================================
+    // ================================== CHUNK KINDS ===================================
+    // ==================================================================================
+
+    static final int RGB = 0;
+
+    static final int RGBA = 1;
+
+    static final int INDEX = 2;
+
+    static final int DIFF = 3;
+
+    static final int LUMA = 4;
+
+    static final int RUN = 5;
+
+    /**
+     * Number of kinds of chunks
+     */
+    static final int KINDS = 6;
+
+    /**
+     * Size of the encoded pixels, in bytes
+     * @return (long) - Size of the chunks, without the header and QOISpecification.QOI_EOF
+     */
+    public long dataSize(){
+        return rgb * 4 + rgba * 5 + index + diff + luma * 2 + run;
+    }
+
+    /**
+     * Size of the "Quite Ok Image" file, in bytes
+     * @return (long) - Size of the chunks, the header and QOISpecification.QOI_EOF
+     */
+    public long fileSize(){
+        return QOISpecification.HEADER_SIZE + dataSize() + QOISpecification.QOI_EOF.length;
+    }
+
+    /**
+     * Size of the given chunks, in bytes
+     * @param chunks (long[]) - Number of chunks of each kind
+     * @return (long) - Total size of the chunks
+     */
+    static long size(long[] chunks){
+        return chunks[RGB] * 4 + chunks[RGBA] * 5 + chunks[INDEX] + chunks[DIFF] + chunks[LUMA] * 2 + chunks[RUN];
+    }
+
+}
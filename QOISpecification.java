@@ -136,4 +136,14 @@ public final class QOISpecification {
         return (byte) (tmp < 0 ? tmp + 64 : tmp);
     }
 
+    /**
+     * Hash a given packed pixel using the hash function specific to "Quite Ok Image" format
+     * @apiNote index = (r * 3 + g * 5 + b * 7 + a * 11) % 64
+     * @param pixel (int) - ARGB pixel to hash (same format as Helper.Image::data)
+     * @return (int) - hash of the pixel
+     */
+    public static int hash(int pixel){
+        return ((pixel >> 16 & 0xFF) * 3 + (pixel >> 8 & 0xFF) * 5 + (pixel & 0xFF) * 7 + (pixel >>> 24) * 11) & 63;
+    }
+
 }
\ No newline at end of file
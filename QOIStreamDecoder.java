@@ -0,0 +1,217 @@
+package cs107;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Streaming "Quite Ok Image" Decoder. The header is read as soon as the decoder is created,
+ * the rows are then decoded one by one as they are asked for and QOISpecification.QOI_EOF
+ * is checked right after the last one.
+ * @apiNote Only a window of the input (two rows of chunks at most, at least 64 KiB) and one
+ * row of pixels are kept in memory : the first row is available as soon as its chunks are
+ * read, whatever the height of the image. The input is only waited for when the window
+ * does not hold the next chunk, a slow input is decoded as its bytes arrive. Bytes after
+ * QOISpecification.QOI_EOF are ignored.
+ * @version 1.3
+ * @since 1.3
+ */
+public final class QOIStreamDecoder implements Closeable {
+
+    private static final int MIN_WINDOW = 1 << 16;
+
+    private final ReadableByteChannel input;
+    private final int width;
+    private final int height;
+    private final byte channels;
+    private final byte colorSpace;
+    private final QOIDecoderState state = new QOIDecoderState();
+    private final int[] row;
+    private final byte[] window;
+    private int position;
+    private int limit;
+    private boolean ended;
+    private int rows;
+
+    /**
+     * Create a new streaming decoder reading from the given stream
+     * @param input (InputStream) - Stream where to read the "Quite Ok Image" file from
+     * @throws AssertionError if the input is null or the header is corrupted
+     */
+    public QOIStreamDecoder(InputStream input){
+        this(Channels.newChannel(input));
+    }
+
+    /**
+     * Create a new streaming decoder reading from the given channel
+     * @param input (ReadableByteChannel) - Channel where to read the "Quite Ok Image" file from
+     * @throws AssertionError if the input is null or the header is corrupted
+     */
+    public QOIStreamDecoder(ReadableByteChannel input){
+        assert input != null;
+        this.input = input;
+        byte[] header = new byte[QOISpecification.HEADER_SIZE];
+        ByteBuffer bytes = ByteBuffer.wrap(header);
+        try {
+            int count = 0;
+            while (bytes.hasRemaining() && count >= 0) {
+                count = input.read(bytes);
+            }
+        } catch (IOException e){
+            Helper.fail("An error occurred while trying to read the header");
+        }
+        assert !bytes.hasRemaining();
+        QOIDecoder.checkMagic(header);
+        int[] info = QOIDecoder.decodeHeader(header);
+        this.width = info[0];
+        this.height = info[1];
+        this.channels = (byte) info[2];
+        this.colorSpace = (byte) info[3];
+        this.row = new int[width];
+        this.window = new byte[Math.max(2 * width * QOIEncoderState.MAX_CHUNK_SIZE, MIN_WINDOW)];
+    }
+
+    /**
+     * Width of the image
+     * @return (int) - Width given by the header
+     */
+    public int width(){
+        return width;
+    }
+
+    /**
+     * Height of the image
+     * @return (int) - Height given by the header
+     */
+    public int height(){
+        return height;
+    }
+
+    /**
+     * Number of channels of the image
+     * @return (byte) - Channels given by the header
+     */
+    public byte channels(){
+        return channels;
+    }
+
+    /**
+     * Color space of the image
+     * @return (byte) - Color space given by the header
+     */
+    public byte colorSpace(){
+        return colorSpace;
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Check if some rows are left
+     * @return (boolean) - true if QOIStreamDecoder::readRow can be called again
+     */
+    public boolean hasNextRow(){
+        return rows < height;
+    }
+
+    /**
+     * Decode the next row of the image. QOISpecification.QOI_EOF is checked after the last one
+     * @apiNote The returned array belongs to the decoder, it is overwritten by the next call
+     * @return (int[]) - ARGB pixels of the row (same format as a row of Helper.Image::data)
+     * @throws AssertionError if all the rows were already read or if the input is corrupted
+     */
+    public int[] readRow(){
+        assert hasNextRow();
+        int x = 0;
+        while (x < width) {
+            int count;
+            if (state.run > 0) {
+                count = Math.min(state.run, width - x);
+            } else {
+                // Wait for the next chunk only, then decode as many pixels as the window
+                // surely holds (MAX_CHUNK_SIZE bytes per pixel at most)
+                fill(1);
+                fill(QOIDecoderState.size(window[position]));
+                count = Math.max(1, Math.min(width - x, (limit - position) / QOIEncoderState.MAX_CHUNK_SIZE));
+            }
+            position = state.decode(window, position, row, x, x + count);
+            assert position <= limit : "The input ends in the middle of a chunk";
+            x += count;
+        }
+        rows += 1;
+        if (rows == height) {
+            assert state.run == 0;
+            fill(QOISpecification.QOI_EOF.length);
+            assert limit - position >= QOISpecification.QOI_EOF.length : "The input ends before QOISpecification.QOI_EOF";
+            assert Arrays.equals(window, position, position + QOISpecification.QOI_EOF.length,
+                    QOISpecification.QOI_EOF, 0, QOISpecification.QOI_EOF.length);
+        }
+        return row;
+    }
+
+    /**
+     * Decode all the remaining rows and give them to the action one after the other
+     * @apiNote The row given to the action belongs to the decoder, it is overwritten by the next one
+     * @param action (ObjIntConsumer) - Action taking the ARGB pixels of a row and the index of the row
+     * @throws AssertionError if the action is null or if the input is corrupted
+     */
+    public void forEachRow(ObjIntConsumer<int[]> action){
+        assert action != null;
+        while (hasNextRow()) {
+            int y = rows;
+            action.accept(readRow(), y);
+        }
+    }
+
+    /**
+     * Close the underlying input
+     */
+    @Override
+    public void close(){
+        try {
+            input.close();
+        } catch (IOException e){
+            Helper.fail("An error occurred while trying to close the input");
+        }
+    }
+
+    // ==================================================================================
+    // ================================= INPUT METHODS ==================================
+    // ==================================================================================
+
+    /**
+     * Read from the input until the window holds the given number of bytes or the input ends
+     * @apiNote The bytes left are always moved to the start of the window first, a chunk that
+     * is cut by the end of the input is then read from the window (not past its end)
+     * @param length (int) - Number of bytes wanted after the position
+     */
+    private void fill(int length){
+        if (limit - position >= length)
+            return;
+        System.arraycopy(window, position, window, 0, limit - position);
+        limit -= position;
+        position = 0;
+        if (ended)
+            return;
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(window, limit, window.length - limit);
+            while (limit < length) {
+                int count = input.read(bytes);
+                if (count < 0) {
+                    ended = true;
+                    return;
+                }
+                limit += count;
+            }
+        } catch (IOException e){
+            Helper.fail("An error occurred while trying to read the chunks");
+        }
+    }
+
+}
\ No newline at end of file
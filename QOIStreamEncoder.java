@@ -0,0 +1,207 @@
+package cs107;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming "Quite Ok Image" Encoder. The header is written as soon as the encoder
+ * is created, the pixels are then given row by row and the encoded chunks are flushed
+ * to the output after each row. QOISpecification.QOI_EOF is written when the encoder is closed.
+ * @apiNote Only one row of encoded data is kept in memory, the image itself is never
+ * required as a whole. The produced bytes are the same as QOIEncoder::qoiFile.
+ * Once closed, the encoder gives a QOICheckpoint that allows more rows to be appended
+ * to the file later on (see QOIStreamEncoder::append).
+ * @version 1.3
+ * @since 1.3
+ */
+public final class QOIStreamEncoder implements Closeable {
+
+    private final WritableByteChannel output;
+    private final int width;
+    private final int height;
+    private final QOIEncoderState state = new QOIEncoderState();
+    private final byte[] buffer;
+    private int rows;
+    private long written;
+    private boolean closed;
+    private QOICheckpoint checkpoint;
+
+    /**
+     * Create a new streaming encoder writing to the given stream
+     * @param output (OutputStream) - Stream where to write the "Quite Ok Image" file
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @throws AssertionError if the output is null or the header is corrupted
+     */
+    public QOIStreamEncoder(OutputStream output, int width, int height, byte channels, byte colorSpace){
+        this(Channels.newChannel(output), width, height, channels, colorSpace);
+    }
+
+    /**
+     * Create a new streaming encoder writing to the given channel
+     * @param output (WritableByteChannel) - Channel where to write the "Quite Ok Image" file
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @throws AssertionError if the output is null or the header is corrupted
+     */
+    public QOIStreamEncoder(WritableByteChannel output, int width, int height, byte channels, byte colorSpace){
+        this(output, width, height, 0, 0);
+        write(QOIEncoder.qoiHeader(width, height, channels, colorSpace));
+    }
+
+    /**
+     * Create a new streaming encoder continuing an image
+     * @param output (WritableByteChannel) - Channel positioned where to write the next chunk
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param rows (int) - Number of rows already encoded
+     * @param written (long) - Number of bytes already written
+     */
+    private QOIStreamEncoder(WritableByteChannel output, int width, int height, int rows, long written){
+        assert output != null;
+        assert width > 0 && height > 0;
+        this.output = output;
+        this.width = width;
+        this.height = height;
+        this.rows = rows;
+        this.written = written;
+        this.buffer = new byte[width * QOIEncoderState.MAX_CHUNK_SIZE + 1 + QOISpecification.QOI_EOF.length];
+    }
+
+    /**
+     * Reopen a "Quite Ok Image" file to append new rows at the bottom of the image.
+     * The last chunks and QOISpecification.QOI_EOF are removed, the height in the header
+     * is updated and the encoding continues from the given checkpoint.
+     * @apiNote Only the new rows are encoded, the rest of the file is left as it is
+     * @param path (Path) - Path of the file written with the checkpoint
+     * @param checkpoint (QOICheckpoint) - Checkpoint given by the encoder that wrote the file
+     * @param rows (int) - Number of rows to append
+     * @return (QOIStreamEncoder) - Encoder expecting the new rows
+     * @throws AssertionError if the path or the checkpoint is null
+     * @throws RuntimeException if the file cannot be opened or if the checkpoint does not
+     * match the file, the file is then left untouched. Once the checks passed the file is
+     * modified in place : if the truncation or the update of the header fails, or if the
+     * new rows are not all written and closed, the file is left truncated and is no longer
+     * a valid "Quite Ok Image" file
+     */
+    public static QOIStreamEncoder append(Path path, QOICheckpoint checkpoint, int rows){
+        assert path != null && checkpoint != null;
+        assert rows >= 0;
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e){
+            return Helper.fail("An error occurred while trying to append to : \"%s\"%n", path);
+        }
+        try {
+            var header = ByteBuffer.allocate(QOISpecification.HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0);
+            if (header.hasRemaining() || !QOIDecoder.isHeader(header.array())
+                    || QOIDecoder.toInt(header.array(), 4) != checkpoint.width()
+                    || QOIDecoder.toInt(header.array(), 8) != checkpoint.height()
+                    || checkpoint.offset() > channel.size() - QOISpecification.QOI_EOF.length)
+                Helper.fail("The checkpoint does not match the file : \"%s\"%n", path);
+            int height = checkpoint.height() + rows;
+            channel.truncate(checkpoint.offset());
+            channel.write(ByteBuffer.wrap(ArrayUtils.fromInt(height)), 8);
+            channel.position(checkpoint.offset());
+            var encoder = new QOIStreamEncoder(channel, checkpoint.width(), height, checkpoint.height(), checkpoint.offset());
+            checkpoint.restore(encoder.state);
+            return encoder;
+        } catch (IOException e){
+            close(channel, e);
+            return Helper.fail("An error occurred while trying to append to : \"%s\"%n", path);
+        } catch (RuntimeException | Error e){
+            close(channel, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Encode the next row of the image and write the produced chunks
+     * @param row (int[]) - ARGB pixels of the row (same format as a row of Helper.Image::data)
+     * @throws AssertionError if the row is null, if its length differs from the width
+     * or if all the rows were already written
+     */
+    public void writeRow(int[] row){
+        assert !closed;
+        assert row != null && row.length == width;
+        assert rows < height;
+        int length = state.encode(row, 0, width, buffer, 0);
+        rows += 1;
+        write(buffer, length);
+    }
+
+    /**
+     * Write the pending run, QOISpecification.QOI_EOF and close the underlying output
+     * @throws AssertionError if some rows were not written
+     */
+    @Override
+    public void close(){
+        if (closed)
+            return;
+        closed = true;
+        assert rows == height : "Only " + rows + " rows out of " + height + " were written";
+        checkpoint = QOICheckpoint.of(state, written, width, rows);
+        int length = state.flush(buffer, 0);
+        System.arraycopy(QOISpecification.QOI_EOF, 0, buffer, length, QOISpecification.QOI_EOF.length);
+        write(buffer, length + QOISpecification.QOI_EOF.length);
+        try {
+            output.close();
+        } catch (IOException e){
+            Helper.fail("An error occurred while trying to close the output");
+        }
+    }
+
+    /**
+     * State of the encoder before the end of the image, to append rows later on
+     * @return (QOICheckpoint) - Checkpoint of the closed encoder
+     * @throws AssertionError if the encoder is not closed yet
+     */
+    public QOICheckpoint checkpoint(){
+        assert closed;
+        return checkpoint;
+    }
+
+    // ==================================================================================
+    // ================================= OUTPUT METHODS =================================
+    // ==================================================================================
+
+    /**
+     * Close a channel after a failure, keeping the original failure
+     */
+    private static void close(FileChannel channel, Throwable failure){
+        try {
+            channel.close();
+        } catch (IOException e){
+            failure.addSuppressed(e);
+        }
+    }
+
+    private void write(byte[] content){
+        write(content, content.length);
+    }
+
+    private void write(byte[] content, int length){
+        try {
+            var bytes = ByteBuffer.wrap(content, 0, length);
+            while (bytes.hasRemaining()) {
+                written += output.write(bytes);
+            }
+        } catch (IOException e){
+            Helper.fail("An error occurred while trying to write the encoded rows");
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Structural validation of "Quite Ok Image" files. The chunks are walked without decoding
+ * any pixel : only the size of every chunk and the number of pixels it stands for are
+ * looked at, the total must be width * height and QOISpecification.QOI_EOF must follow.
+ * @apiNote Nothing is allocated per image and no assertion is used : the validation also
+ * runs when assertions are disabled, a corrupted file gives the offset of the first error
+ * instead of a failure. The colors themselves are not checked, any byte is a valid color.
+ * @version 1.3
+ * @since 1.3
+ */
+public final class QOIValidator {
+
+    /**
+     * Result of a valid file
+     */
+    public static final int VALID = -1;
+
+    /**
+     * Size in bytes of the chunk starting with the given tag
+     */
+    private static final byte[] SIZES = new byte[256];
+
+    /**
+     * Number of pixels of the chunk starting with the given tag
+     */
+    private static final byte[] PIXELS = new byte[256];
+
+    static {
+        for (int tag = 0; tag < 256; ++tag) {
+            byte kind = (byte) (tag & 0xC0);
+            SIZES[tag] = (byte) (kind == QOISpecification.QOI_OP_LUMA_TAG ? 2 : 1);
+            PIXELS[tag] = (byte) (kind == QOISpecification.QOI_OP_RUN_TAG ? (tag & 0x3F) + 1 : 1);
+        }
+        SIZES[QOISpecification.QOI_OP_RGB_TAG & 0xFF] = 4;
+        SIZES[QOISpecification.QOI_OP_RGBA_TAG & 0xFF] = 5;
+        PIXELS[QOISpecification.QOI_OP_RGB_TAG & 0xFF] = 1;
+        PIXELS[QOISpecification.QOI_OP_RGBA_TAG & 0xFF] = 1;
+    }
+
+    /**
+     * DO NOT CHANGE THIS, MORE ON THAT IN WEEK 7.
+     */
+    private QOIValidator(){}
+
+    // ==================================================================================
+    // =============================== VALIDATION METHODS ===============================
+    // ==================================================================================
+
+    /**
+     * Validate the content of a file
+     * @param content (byte[]) - Content of the file
+     * @return (int) - QOIValidator.VALID if the file is valid, the offset of the first error otherwise
+     * (the length of the content if the file ends too early)
+     */
+    public static int validate(byte[] content){
+        if (content == null)
+            return 0;
+        return validate(ByteBuffer.wrap(content));
+    }
+
+    /**
+     * Validate a file straight from the disk
+     * @apiNote The file is mapped in memory (FileChannel::map), it is never copied on the heap.
+     * A file larger than 2 GiB cannot be decoded, the first error is then at offset Integer.MAX_VALUE
+     * @param path (Path) - Path of the file
+     * @return (int) - QOIValidator.VALID if the file is valid, the offset of the first error otherwise
+     * (the length of the file if it ends too early)
+     */
+    public static int validate(Path path){
+        assert path != null;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                return Integer.MAX_VALUE;
+            return validate(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e){
+            return Helper.fail("An error occurred while trying to read from : \"%s\"%n", path);
+        }
+    }
+
+    /**
+     * Validate the file held between index 0 and the limit of the buffer
+     * @param content (ByteBuffer) - Content of the file, its position and its byte order are
+     * ignored and left untouched
+     * @return (int) - QOIValidator.VALID if the file is valid, the offset of the first error otherwise
+     * (the limit of the buffer if the file ends too early)
+     */
+    public static int validate(ByteBuffer content){
+        if (content == null)
+            return 0;
+        content = content.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int length = content.limit();
+        int header = validateHeader(content);
+        if (header != VALID)
+            return header;
+        long remaining = (long) content.getInt(4) * content.getInt(8);
+        int p = QOISpecification.HEADER_SIZE;
+        while (remaining > 0) {
+            if (p >= length)
+                return length;
+            int tag = content.get(p) & 0xFF;
+            remaining -= PIXELS[tag];
+            if (remaining < 0)
+                return p;
+            if (p + SIZES[tag] > length)
+                return length;
+            p += SIZES[tag];
+        }
+        for (int i = 0; i < QOISpecification.QOI_EOF.length; ++i) {
+            if (p + i >= length)
+                return length;
+            if (content.get(p + i) != QOISpecification.QOI_EOF[i])
+                return p + i;
+        }
+        p += QOISpecification.QOI_EOF.length;
+        return p == length ? VALID : p;
+    }
+
+    /**
+     * Validate the header, the same checks as QOIDecoder::decodeHeader
+     * @return (int) - QOIValidator.VALID if the header is valid, the offset of the first error otherwise
+     */
+    private static int validateHeader(ByteBuffer content){
+        int length = content.limit();
+        for (int i = 0; i < QOISpecification.QOI_MAGIC.length; ++i) {
+            if (i >= length)
+                return length;
+            if (content.get(i) != QOISpecification.QOI_MAGIC[i])
+                return i;
+        }
+        if (length < QOISpecification.HEADER_SIZE)
+            return length;
+        if (content.getInt(4) <= 0)
+            return 4;
+        if (content.getInt(8) <= 0)
+            return 8;
+        if (content.get(12) != QOISpecification.RGB && content.get(12) != QOISpecification.RGBA)
+            return 12;
+        if (content.get(13) != QOISpecification.sRGB && content.get(13) != QOISpecification.ALL)
+            return 13;
+        return VALID;
+    }
+
+}
\ No newline at end of file
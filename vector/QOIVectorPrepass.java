@@ -0,0 +1,180 @@
+package cs107;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * Two-pass "Quite Ok Image" Encoder, only used by Benchmark to compare against
+ * QOIEncoderState::encode. A Vector API pre-pass classifies every pixel of a row against
+ * the pixel before it (run, QOI_OP_DIFF, QOI_OP_LUMA, QOI_OP_RGB or QOI_OP_RGBA), a scalar
+ * emitter then checks the index and writes the chunks. The output is the same as QOIEncoder::encodeData.
+ * @apiNote jdk.incubator.vector is needed to compile and to run this class, which is why it
+ * is kept out of the main sources :
+ * <pre>
+ * javac --add-modules jdk.incubator.vector -d out *.java vector/QOIVectorPrepass.java
+ * java --add-modules jdk.incubator.vector -cp out cs107.Benchmark
+ * </pre>
+ * Without it, Benchmark skips the comparison.
+ * @version 1.3
+ * @since 1.3
+ */
+final class QOIVectorPrepass {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    private static final int RUN = 0;
+    private static final int DIFF = 1;
+    private static final int LUMA = 2;
+    private static final int RGB = 3;
+    private static final int RGBA = 4;
+
+    private int previous = QOIEncoderState.START_PIXEL;
+    private int run;
+    private final int[] index = new int[64];
+    private int[] classes = new int[0];
+
+    /**
+     * DO NOT CHANGE THIS, MORE ON THAT IN WEEK 7.
+     */
+    private QOIVectorPrepass(){}
+
+    /**
+     * Encode the given image using the "Quite Ok Image" Protocol
+     * @param image (int[][]) - ARGB pixels of the image (same format as Helper.Image::data)
+     * @return (byte[]) - "Quite Ok Image" representation of the image
+     */
+    static byte[] encodeData(int[][] image){
+        QOIVectorPrepass encoder = new QOIVectorPrepass();
+        byte[] buffer = new byte[image.length * image[0].length * QOIEncoderState.MAX_CHUNK_SIZE + 1];
+        int position = 0;
+        for (int[] row : image) {
+            position = encoder.encode(row, buffer, position);
+        }
+        if (encoder.run > 0) {
+            buffer[position++] = (byte) (QOISpecification.QOI_OP_RUN_TAG | (encoder.run - 1));
+        }
+        return Arrays.copyOf(buffer, position);
+    }
+
+    // ==================================================================================
+    // ================================ ENCODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Classify the row with the pre-pass, then write its chunks
+     */
+    private int encode(int[] pixels, byte[] buffer, int p){
+        if (classes.length < pixels.length) {
+            classes = new int[pixels.length];
+        }
+        classify(pixels, previous, classes);
+        int previous = this.previous;
+        for (int i = 0; i < pixels.length; ++i) {
+            int kind = classes[i];
+            int pixel = pixels[i];
+            if (kind == RUN) {
+                run += 1;
+                if (run == 62) {
+                    buffer[p++] = (byte) (QOISpecification.QOI_OP_RUN_TAG | 61);
+                    run = 0;
+                }
+                continue;
+            }
+            if (run > 0) {
+                buffer[p++] = (byte) (QOISpecification.QOI_OP_RUN_TAG | (run - 1));
+                run = 0;
+            }
+            int hash = QOISpecification.hash(pixel);
+            if (index[hash] == pixel) {
+                buffer[p++] = (byte) (QOISpecification.QOI_OP_INDEX_TAG | hash);
+                previous = pixel;
+                continue;
+            }
+            index[hash] = pixel;
+            int dr = (byte) ((pixel >> 16) - (previous >> 16));
+            int dg = (byte) ((pixel >> 8) - (previous >> 8));
+            int db = (byte) (pixel - previous);
+            switch (kind) {
+                case DIFF -> buffer[p++] = (byte) (QOISpecification.QOI_OP_DIFF_TAG | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+                case LUMA -> {
+                    buffer[p++] = (byte) (QOISpecification.QOI_OP_LUMA_TAG | (dg + 32));
+                    buffer[p++] = (byte) ((dr - dg + 8) << 4 | (db - dg + 8));
+                }
+                case RGB -> {
+                    buffer[p++] = QOISpecification.QOI_OP_RGB_TAG;
+                    buffer[p++] = (byte) (pixel >> 16);
+                    buffer[p++] = (byte) (pixel >> 8);
+                    buffer[p++] = (byte) pixel;
+                }
+                default -> {
+                    buffer[p++] = QOISpecification.QOI_OP_RGBA_TAG;
+                    buffer[p++] = (byte) (pixel >> 16);
+                    buffer[p++] = (byte) (pixel >> 8);
+                    buffer[p++] = (byte) pixel;
+                    buffer[p++] = (byte) (pixel >>> 24);
+                }
+            }
+            previous = pixel;
+        }
+        this.previous = previous;
+        return p;
+    }
+
+    /**
+     * Kind of chunk of every pixel of the row, given the pixel before it. The index is not
+     * looked at, it depends on all the previous chunks
+     */
+    private static void classify(int[] pixels, int previous, int[] classes){
+        int n = pixels.length;
+        classes[0] = classify(pixels[0], previous);
+        int i = 1;
+        for (; i + SPECIES.length() <= n; i += SPECIES.length()) {
+            IntVector current = IntVector.fromArray(SPECIES, pixels, i);
+            IntVector before = IntVector.fromArray(SPECIES, pixels, i - 1);
+            VectorMask<Integer> same = current.eq(before);
+            VectorMask<Integer> alpha = current.lanewise(VectorOperators.XOR, before).lanewise(VectorOperators.LSHR, 24).eq(0);
+            IntVector dr = difference(current, before, 16);
+            IntVector dg = difference(current, before, 8);
+            IntVector db = difference(current, before, 0);
+            VectorMask<Integer> diff = dr.add(2).compare(VectorOperators.UNSIGNED_LT, 4)
+                    .and(dg.add(2).compare(VectorOperators.UNSIGNED_LT, 4))
+                    .and(db.add(2).compare(VectorOperators.UNSIGNED_LT, 4));
+            VectorMask<Integer> luma = dg.add(32).compare(VectorOperators.UNSIGNED_LT, 64)
+                    .and(dr.sub(dg).add(8).compare(VectorOperators.UNSIGNED_LT, 16))
+                    .and(db.sub(dg).add(8).compare(VectorOperators.UNSIGNED_LT, 16));
+            IntVector.broadcast(SPECIES, RGB).blend(LUMA, luma).blend(DIFF, diff)
+                    .blend(RGBA, alpha.not()).blend(RUN, same).intoArray(classes, i);
+        }
+        for (; i < n; ++i) {
+            classes[i] = classify(pixels[i], pixels[i - 1]);
+        }
+    }
+
+    /**
+     * Signed difference of the channel at the given shift, wrapped around like a byte
+     */
+    private static IntVector difference(IntVector current, IntVector before, int shift){
+        return current.lanewise(VectorOperators.ASHR, shift).sub(before.lanewise(VectorOperators.ASHR, shift))
+                .lanewise(VectorOperators.LSHL, 24).lanewise(VectorOperators.ASHR, 24);
+    }
+
+    private static int classify(int pixel, int previous){
+        if (pixel == previous)
+            return RUN;
+        if ((pixel ^ previous) >>> 24 != 0)
+            return RGBA;
+        int dr = (byte) ((pixel >> 16) - (previous >> 16));
+        int dg = (byte) ((pixel >> 8) - (previous >> 8));
+        int db = (byte) (pixel - previous);
+        if (dr >= -2 && dr < 2 && dg >= -2 && dg < 2 && db >= -2 && db < 2)
+            return DIFF;
+        if (dg >= -32 && dg < 32 && dr - dg >= -8 && dr - dg < 8 && db - dg >= -8 && db - dg < 8)
+            return LUMA;
+        return RGB;
+    }
+
+}
\ No newline at end of file